@@ -0,0 +1,631 @@
+import engine.AtomicIntTable;
+import engine.BookFilter;
+import engine.BookOrder;
+import engine.BookSource;
+import engine.BookStore;
+import engine.BorrowLog;
+import engine.HeapBookStore;
+import engine.ParallelBookScan;
+import engine.StockVersions;
+import engine.TopK;
+import engine.VersionClock;
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import index.BookSearchIndex;
+import index.PrefixTrie;
+import primitives.IntList;
+import primitives.IntObjectMap;
+import queries.*;
+import utils.ChangeEvent;
+import utils.ChangeFeed;
+import utils.ChangeLog;
+import utils.ResourceVersion;
+import utils.StringDictionary;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A library management system that keeps the whole library in the
+ * memory of this process instead of a database.
+ *
+ * Note:
+ *      (1) it follows the same rules as {@link LibraryManagementSystemImpl}
+ *          and returns the same messages, the foreign keys of table borrow
+ *          are emulated as well (removing a book or card removes its
+ *          borrow histories).
+ *      (2) every function is still a transaction. changes to the catalog
+ *          (books & cards) hold the write lock of the catalog, queries share
+ *          its read lock, and circulation does not take it at all.
+ *      (3) stock and borrow records are multi-versioned: borrow, return and
+ *          incBookStock decide with CAS on the stock of the book, the loans
+ *          of the card and the open (card_id, book_id) pairs, and commit a
+ *          new version, while queryBook and showBorrowHistory read the
+ *          snapshot they pinned. no lock is taken on the way, so contended
+ *          borrows never block, nor do reports and circulation wait for each
+ *          other. a background task reclaims the versions no snapshot can see,
+ *          and brings the ranking of completions up to the new stock.
+ *      (4) books, cards and borrows are copied in and out, callers never
+ *          hold references to the stored objects.
+ *      (5) large queries without a limit are filtered and sorted in
+ *          parallel, see {@link ParallelBookScan}.
+ *      (6) books are kept by a {@link BookStore}, on the heap by default,
+ *          or off the heap for large catalogs, see {@link engine.OffHeapBookStore}.
+ */
+public class InMemoryLibraryManagementSystem implements LibraryManagementSystem {
+
+    private static final ScheduledExecutorService RECLAIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "library-reclaimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReentrantReadWriteLock catalog = new ReentrantReadWriteLock();
+    private final VersionClock clock = new VersionClock();
+
+    private final BookStore books;
+    /* book_id --> versions of the stock, the stock kept by the store is not used */
+    private final StockVersions stocks = new StockVersions(clock);
+    /* card_id --> 1 + number of books not returned, 0 if there is no such card */
+    private final AtomicIntTable cardLoans = new AtomicIntTable();
+    /* card_id --> card, ordered by card_id */
+    private final IntObjectMap<Card> cards = new IntObjectMap<>();
+    /* all stored cards, compared by name...type to reject duplicates */
+    private final Set<Card> cardSet = new HashSet<>();
+    private final BorrowLog borrows = new BorrowLog();
+    private final StringDictionary dictionary = StringDictionary.ATTRIBUTES;
+    /* type-ahead over title, author & press, in the order of BookSearchIndex.Field */
+    private final PrefixTrie[] tries = new PrefixTrie[BookSearchIndex.Field.values().length];
+    /* book_id --> stock the book weighs in the tries, guarded by ranking and the catalog */
+    private int[] weights = new int[1024];
+    /* completions read by suggestBook while the background task re-ranks them */
+    private final ReentrantReadWriteLock ranking = new ReentrantReadWriteLock();
+
+    private final ParallelBookScan scan;
+
+    private int nextBookId = 1;
+    private int nextCardId = 1;
+
+    public InMemoryLibraryManagementSystem() {
+        this(new HeapBookStore(), new ParallelBookScan());
+    }
+
+    public InMemoryLibraryManagementSystem(BookStore books, ParallelBookScan scan) {
+        this.books = books;
+        this.scan = scan;
+        for (int i = 0; i < tries.length; i++) {
+            tries[i] = new PrefixTrie();
+        }
+        // the task must not keep an unused library alive
+        WeakReference<InMemoryLibraryManagementSystem> self = new WeakReference<>(this);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = RECLAIMER.scheduleWithFixedDelay(() -> {
+            InMemoryLibraryManagementSystem library = self.get();
+            if (library != null) {
+                library.reclaim();
+                library.rerank();
+            } else if (task[0] != null) {
+                task[0].cancel(false);
+            }
+        }, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Discards the stock versions and borrow records that no pinned snapshot can see.
+     */
+    public void reclaim() {
+        long oldest = clock.oldest();
+        stocks.reclaim(oldest);
+        borrows.reclaim(oldest);
+    }
+
+    /**
+     * Re-weighs the completions of the books whose stock changed since, so borrow
+     * and return need not take a lock for it. skipped while the catalog is written.
+     */
+    public void rerank() {
+        if (!catalog.readLock().tryLock()) {
+            return;
+        }
+        ranking.writeLock().lock();
+        try {
+            for (int bookId = 1; bookId < weights.length; bookId++) {
+                int stock = stocks.read(bookId, Long.MAX_VALUE);
+                if (stock < 0 || stock == weights[bookId]) {
+                    continue;
+                }
+                Book book = books.get(bookId);
+                if (book != null) {
+                    for (BookSearchIndex.Field field : BookSearchIndex.Field.values()) {
+                        tries[field.ordinal()].weigh(value(book, field), stock - weights[bookId]);
+                    }
+                    weights[bookId] = stock;
+                }
+            }
+        } finally {
+            ranking.writeLock().unlock();
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        catalog.writeLock().lock();
+        try {
+            if (books.find(book) != 0) { // if the book to be stored already exists
+                return new ApiResult(false, "Book to be stored already exists");
+            }
+            int bookId = nextBookId++;
+            book.setBookId(bookId);
+            long version = clock.begin();
+            insertBook(canonical(book.clone()), version);
+            clock.commit(version);
+            ResourceVersion.BOOK.bump();
+            ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId);
+            return new ApiResult(true, bookId); // return the book id
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        StockVersions.Version v = stocks.add(bookId, deltaStock);
+        if (v == null) {
+            if (!stocks.exists(bookId)) { // if the book does not exist
+                return new ApiResult(false, "Book to be updated does not exist");
+            }
+            return new ApiResult(false, "Stock is not enough");
+        }
+        clock.commit(v.version());
+        ResourceVersion.BOOK.bump();
+        ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId);
+        ChangeFeed.CHANGES.publish(ChangeEvent.stock(bookId, v.stock()));
+        return new ApiResult(true, v.stock()); // return the new stock
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> bookList) {
+        catalog.writeLock().lock();
+        try {
+            Set<Book> batch = new HashSet<>();
+            for (Book book : bookList) { // check all books first, so nothing is stored on failure
+                if (books.find(book) != 0 || !batch.add(book)) {
+                    return new ApiResult(false, "Book to be stored already exists");
+                }
+            }
+            long version = clock.begin();
+            for (Book book : bookList) {
+                book.setBookId(nextBookId++);
+                insertBook(canonical(book.clone()), version);
+            }
+            clock.commit(version);
+            ResourceVersion.BOOK.bump();
+            for (Book book : bookList) {
+                ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, book.getBookId());
+            }
+            return new ApiResult(true, "Books stored successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        catalog.writeLock().lock();
+        try {
+            int removed = stocks.remove(bookId); // fails if a copy is on loan, so borrows can not slip in
+            if (removed == StockVersions.ON_LOAN) { // if the book is borrowed
+                return new ApiResult(false, "Book to be removed has not been returned");
+            }
+            if (removed == StockVersions.NO_BOOK) {
+                return new ApiResult(false, "No such book to be removed");
+            }
+            untrack(books.get(bookId));
+            books.remove(bookId);
+            long version = clock.begin();
+            borrows.deleteBook(bookId, version); // on delete cascade
+            clock.commit(version);
+            ResourceVersion.BOOK.bump();
+            ResourceVersion.BORROW.bump();
+            ChangeLog.CATALOG.removed(ChangeLog.Kind.BOOK, bookId);
+            return new ApiResult(true, "Book removed successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        catalog.writeLock().lock();
+        try {
+            Book old = books.get(book.getBookId());
+            if (old == null) {
+                return new ApiResult(false, "No such book to be updated");
+            }
+            int same = books.find(book);
+            if (same != 0 && same != book.getBookId()) { // would violate the unique key
+                return new ApiResult(false, "Book with the same information already exists");
+            }
+            int weight = untrack(old);
+            books.put(canonical(book.clone())); // stock can not be modified here, it is versioned apart
+            track(book, weight);
+            ResourceVersion.BOOK.bump();
+            ResourceVersion.BORROW.bump();
+            ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, book.getBookId());
+            ChangeFeed.CHANGES.publish(ChangeEvent.book(book));
+            return new ApiResult(true, "Book modified successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        catalog.readLock().lock();
+        try (VersionClock.Snapshot snapshot = clock.pin()) {
+            BookSource source = withStockAt(snapshot.version());
+            BookFilter filter = new BookFilter(conditions);
+            BookOrder order = BookOrder.of(conditions);
+            List<Book> results;
+            if (conditions.getLimit() != null) { // only keep the first books in a bounded heap
+                results = TopK.select(source, filter, order, conditions.getLimit());
+            } else {
+                results = scan.scan(source, filter, order);
+            }
+            return new ApiResult(true, new BookQueryResults(results));
+        } finally {
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult suggestBook(BookSearchIndex.Field field, String prefix, int k) {
+        catalog.readLock().lock();
+        ranking.readLock().lock();
+        try {
+            return new ApiResult(true, tries[field.ordinal()].complete(prefix, Math.min(k, PrefixTrie.MAX_K)));
+        } finally {
+            ranking.readLock().unlock();
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        int cardId = borrow.getCardId();
+        int bookId = borrow.getBookId();
+        BorrowLog.Record record = borrows.claim(cardId, bookId, borrow.getBorrowTime());
+        if (record == null) { // if the book is borrowed
+            return new ApiResult(false, "Book to be borrowed has not been returned");
+        }
+        if (!stocks.exists(bookId)) { // if the book does not exist
+            borrows.release(record);
+            return new ApiResult(false, "Book to be borrowed does not exist");
+        }
+        if (!takeCard(cardId)) { // foreign key of card_id, the card can not be removed while held
+            borrows.release(record);
+            return new ApiResult(false, "Card to borrow with does not exist");
+        }
+        StockVersions.Version v = stocks.borrow(bookId);
+        if (v == null) {
+            putCard(cardId);
+            borrows.release(record);
+            if (!stocks.exists(bookId)) {
+                return new ApiResult(false, "Book to be borrowed does not exist");
+            }
+            return new ApiResult(false, "Stock is not enough"); // if the stock is not enough
+        }
+        borrows.borrow(record, v.version());
+        clock.commit(v.version());
+        ResourceVersion.BOOK.bump();
+        ResourceVersion.BORROW.bump();
+        ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId); // the stock
+        ChangeFeed.CHANGES.publish(ChangeEvent.borrow(cardId, bookId, borrow.getBorrowTime()));
+        ChangeFeed.CHANGES.publish(ChangeEvent.stock(bookId, v.stock()));
+        return new ApiResult(true, "Book borrowed successfully");
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        int cardId = borrow.getCardId();
+        int bookId = borrow.getBookId();
+        BorrowLog.Record record = borrows.open(cardId, bookId);
+        if (record == null || !record.isBorrowed()) { // if the book is not borrowed
+            return new ApiResult(false, "Book to be returned has not been borrowed");
+        }
+        if (record.getBorrowTime() >= borrow.getReturnTime()) { // if the return time is earlier than the borrow time
+            return new ApiResult(false, "Return time is earlier than borrow time");
+        }
+        if (!borrows.close(record)) { // returned by someone else meanwhile
+            return new ApiResult(false, "Book to be returned has not been borrowed");
+        }
+        StockVersions.Version v = stocks.giveBack(bookId); // the book exists while a copy is on loan
+        borrows.giveBack(record, borrow.getReturnTime(), v.version());
+        putCard(cardId);
+        clock.commit(v.version());
+        ResourceVersion.BOOK.bump();
+        ResourceVersion.BORROW.bump();
+        ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId); // the stock
+        ChangeFeed.CHANGES.publish(ChangeEvent.returned(cardId, bookId, borrow.getReturnTime()));
+        ChangeFeed.CHANGES.publish(ChangeEvent.stock(bookId, v.stock()));
+        return new ApiResult(true, "Book returned successfully");
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        catalog.readLock().lock();
+        try (VersionClock.Snapshot snapshot = clock.pin()) {
+            List<BorrowHistories.Item> items = new ArrayList<>();
+            for (Borrow borrow : borrows.history(cardId, snapshot.version())) {
+                Book book = books.get(borrow.getBookId());
+                if (book != null) { // removed after the snapshot
+                    items.add(new BorrowHistories.Item(cardId, book, borrow));
+                }
+            }
+            items.sort((x, y) -> { // sort by borrow_time DESC, book_id ASC
+                if (x.getBorrowTime() != y.getBorrowTime()) {
+                    return Long.compare(y.getBorrowTime(), x.getBorrowTime());
+                }
+                return Integer.compare(x.getBookId(), y.getBookId());
+            });
+            return new ApiResult(true, new BorrowHistories(items));
+        } finally {
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        catalog.writeLock().lock();
+        try {
+            if (cardSet.contains(card)) { // if the card to be registered already exists
+                return new ApiResult(false, "Card to be registered already exists");
+            }
+            card.setCardId(nextCardId++);
+            cardLoans.ensure(card.getCardId());
+            cardLoans.set(card.getCardId(), 1);
+            borrows.ensureCard(card.getCardId());
+            Card stored = canonical(card.clone());
+            cards.put(stored.getCardId(), stored);
+            cardSet.add(stored);
+            ResourceVersion.CARD.bump();
+            ChangeLog.CATALOG.changed(ChangeLog.Kind.CARD, stored.getCardId());
+            return new ApiResult(true, "Card registered successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult modifyCard(Card card) {
+        catalog.writeLock().lock();
+        try {
+            Card old = cards.get(card.getCardId());
+            if (old == null) {
+                return new ApiResult(false, "No such card to be updated");
+            }
+            if (!old.equals(card) && cardSet.contains(card)) { // would violate the unique key
+                return new ApiResult(false, "Card with the same information already exists");
+            }
+            Card updated = canonical(card.clone());
+            cardSet.remove(old);
+            cards.put(updated.getCardId(), updated);
+            cardSet.add(updated);
+            ResourceVersion.CARD.bump();
+            ChangeLog.CATALOG.changed(ChangeLog.Kind.CARD, updated.getCardId());
+            return new ApiResult(true, "Card modified successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult removeCard(int cardId) {
+        catalog.writeLock().lock();
+        try {
+            while (!cardLoans.compareAndSet(cardId, 1, 0)) { // fails while a book is not returned
+                int loans = cardLoans.get(cardId);
+                if (loans > 1) { // if the card has borrowed books
+                    return new ApiResult(false, "Card to be removed has not returned books");
+                }
+                if (loans == 0) {
+                    return new ApiResult(false, "No such card to be removed");
+                }
+            }
+            cardSet.remove(cards.remove(cardId));
+            long version = clock.begin();
+            borrows.deleteCard(cardId, version); // on delete cascade
+            clock.commit(version);
+            ResourceVersion.CARD.bump();
+            ResourceVersion.BORROW.bump();
+            ChangeLog.CATALOG.removed(ChangeLog.Kind.CARD, cardId);
+            return new ApiResult(true, "Card removed successfully");
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult showCards() {
+        catalog.readLock().lock();
+        try {
+            IntList ids = cards.keys();
+            ids.sort(); // ordered by card_id
+            List<Card> list = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                list.add(cards.get(ids.get(i)).clone());
+            }
+            return new ApiResult(true, new CardList(list));
+        } finally {
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult syncCatalog(long since, int limit) {
+        ChangeLog.Changes changes = ChangeLog.CATALOG.since(since, limit);
+        List<Book> bookList = new ArrayList<>(changes.books.size());
+        List<Card> cardList = new ArrayList<>(changes.cards.size());
+        if (changes.reset) {
+            return new ApiResult(true, new SyncResults(changes.seq, true, false,
+                    bookList, cardList, new int[0], new int[0]));
+        }
+        catalog.readLock().lock();
+        try (VersionClock.Snapshot snapshot = clock.pin()) {
+            for (int i = 0; i < changes.books.size(); i++) {
+                int bookId = changes.books.get(i);
+                Book book = books.get(bookId);
+                int stock = stocks.read(bookId, snapshot.version());
+                if (book != null && stock >= 0) { // removed meanwhile otherwise
+                    Book copy = book.clone();
+                    copy.setStock(stock);
+                    bookList.add(copy);
+                }
+            }
+            for (int i = 0; i < changes.cards.size(); i++) {
+                Card card = cards.get(changes.cards.get(i));
+                if (card != null) {
+                    cardList.add(card.clone());
+                }
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return new ApiResult(true, new SyncResults(changes.seq, false, changes.more, bookList, cardList,
+                changes.removedBooks.toArray(), changes.removedCards.toArray()));
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        catalog.writeLock().lock();
+        try {
+            books.clear();
+            stocks.clear();
+            cardLoans.clear();
+            cards.clear();
+            cardSet.clear();
+            borrows.clear();
+            for (PrefixTrie trie : tries) {
+                trie.clear();
+            }
+            weights = new int[1024];
+            nextBookId = 1;
+            nextCardId = 1;
+            for (ResourceVersion resource : ResourceVersion.values()) {
+                resource.bump();
+            }
+            ChangeLog.CATALOG.clear(); // every mirror starts over
+            return new ApiResult(true, null);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    /* the stored books as copies carrying their stock as of the snapshot */
+    private BookSource withStockAt(long snapshot) {
+        return new BookSource() {
+            @Override
+            public int slots() {
+                return books.slots();
+            }
+
+            @Override
+            public void collect(int from, int to, BookFilter filter, Consumer<Book> out) {
+                books.collect(from, to, filter, book -> {
+                    int stock = stocks.read(book.getBookId(), snapshot);
+                    if (stock >= 0) { // stored after the snapshot otherwise
+                        Book copy = book.clone();
+                        copy.setStock(stock);
+                        out.accept(copy);
+                    }
+                });
+            }
+        };
+    }
+
+    /* holds the card while one of its borrows is in progress or not returned */
+    private boolean takeCard(int cardId) {
+        while (true) {
+            int loans = cardLoans.get(cardId);
+            if (loans == 0) {
+                return false;
+            }
+            if (cardLoans.compareAndSet(cardId, loans, loans + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void putCard(int cardId) {
+        while (true) {
+            int loans = cardLoans.get(cardId);
+            if (cardLoans.compareAndSet(cardId, loans, loans - 1)) {
+                return;
+            }
+        }
+    }
+
+    private void insertBook(Book book, long version) {
+        stocks.create(book.getBookId(), book.getStock(), version);
+        books.put(book);
+        track(book, book.getStock());
+    }
+
+    /* stored books and cards share the strings of the rows read by the other engine */
+    private Book canonical(Book book) {
+        book.setCategory(dictionary.intern(book.getCategory()));
+        book.setPress(dictionary.intern(book.getPress()));
+        book.setAuthor(dictionary.intern(book.getAuthor()));
+        return book;
+    }
+
+    private Card canonical(Card card) {
+        card.setDepartment(dictionary.intern(card.getDepartment()));
+        return card;
+    }
+
+    /* makes the book completable, weighing weight copies in stock */
+    private void track(Book book, int weight) {
+        int bookId = book.getBookId();
+        if (bookId >= weights.length) {
+            weights = Arrays.copyOf(weights, Math.max(weights.length * 2, bookId + 1));
+        }
+        weights[bookId] = weight;
+        for (BookSearchIndex.Field field : BookSearchIndex.Field.values()) {
+            tries[field.ordinal()].add(value(book, field), weight);
+        }
+    }
+
+    /* @return the stock the book weighed */
+    private int untrack(Book book) {
+        int weight = weights[book.getBookId()];
+        weights[book.getBookId()] = 0;
+        for (BookSearchIndex.Field field : BookSearchIndex.Field.values()) {
+            tries[field.ordinal()].remove(value(book, field), weight);
+        }
+        return weight;
+    }
+
+    private static String value(Book book, BookSearchIndex.Field field) {
+        switch (field) {
+            case TITLE:
+                return book.getTitle();
+            case AUTHOR:
+                return book.getAuthor();
+            default:
+                return book.getPress();
+        }
+    }
+}
@@ -1,11 +1,18 @@
 import entities.Book;
 import entities.Borrow;
 import entities.Card;
+import index.BookSearchIndex;
 import queries.ApiResult;
+import queries.BatchResults;
 import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.BorrowHistories;
 
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Note:
@@ -107,6 +114,54 @@ public interface LibraryManagementSystem {
      */
     ApiResult queryBook(BookQueryConditions conditions);
 
+    /**
+     * stream the books of a query to a consumer, one by one, instead
+     * of materializing them in a {@link queries.BookQueryResults}.
+     *
+     * Note that:
+     *      (1) books are passed in the order of queryBook, and the
+     *          transaction is open until the last book is consumed,
+     *          so consumers should not call back into the library.
+     *      (2) if the consumer throws, the transaction is rolled back
+     *          and the exception is passed on to the caller.
+     *      (3) the default implementation materializes the results,
+     *          {@link LibraryManagementSystemImpl} reads a database
+     *          cursor so very large reads run in constant memory.
+     *
+     * @param conditions query conditions
+     * @param consumer called once for every book, in order
+     *
+     * @return the number of books streamed should be returned
+     *         by ApiResult.payload as an Integer
+     */
+    default ApiResult queryBook(BookQueryConditions conditions, Consumer<? super Book> consumer) {
+        ApiResult result = queryBook(conditions);
+        if (!result.ok) {
+            return result;
+        }
+        List<Book> books = ((BookQueryResults) result.payload).getResults();
+        books.forEach(consumer);
+        return new ApiResult(true, books.size());
+    }
+
+    /**
+     * complete a prefix of books' title, author or press for type-ahead.
+     *
+     * Note that:
+     *      (1) completions are served from the in-process search index,
+     *          the database is only read if the index is not loaded yet.
+     *      (2) matching is case insensitive, and values with more
+     *          copies in stock come first.
+     *
+     * @param field which column to complete
+     * @param prefix what the user has typed so far
+     * @param k max number of completions
+     *
+     * @return completions should be returned by ApiResult.payload
+     *         and should be an instance of List<String>
+     */
+    ApiResult suggestBook(BookSearchIndex.Field field, String prefix, int k);
+
     /* Interface for borrow & return books */
 
     /**
@@ -137,6 +192,26 @@ public interface LibraryManagementSystem {
      */
     ApiResult showBorrowHistory(int cardId);
 
+    /**
+     * stream the borrow histories of a card to a consumer, in the
+     * order of showBorrowHistory, see {@link #queryBook(BookQueryConditions, Consumer)}.
+     *
+     * @param cardId show which card's borrow history
+     * @param consumer called once for every item, in order
+     *
+     * @return the number of items streamed should be returned
+     *         by ApiResult.payload as an Integer
+     */
+    default ApiResult showBorrowHistory(int cardId, Consumer<? super BorrowHistories.Item> consumer) {
+        ApiResult result = showBorrowHistory(cardId);
+        if (!result.ok) {
+            return result;
+        }
+        List<BorrowHistories.Item> items = ((BorrowHistories) result.payload).getItems();
+        items.forEach(consumer);
+        return new ApiResult(true, items.size());
+    }
+
     /**
      * create a new borrow card. do nothing and return failed if
      * the card already exists.
@@ -170,10 +245,56 @@ public interface LibraryManagementSystem {
      */
     ApiResult showCards();
 
+    /**
+     * the books and cards changed after a sequence number of {@link utils.ChangeLog#CATALOG},
+     * as they are now.
+     *
+     * Note:
+     *      (1) a row changed again meanwhile is read as it is, and sent once more
+     *          next time. a row removed meanwhile is left out, its tombstone follows.
+     *      (2) if the result says reset, read everything again, after taking
+     *          its seq, then sync from that seq.
+     *
+     * @param limit the most rows to return, more follow from the returned seq
+     * @return query results should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.SyncResults}
+     */
+    ApiResult syncCatalog(long since, int limit);
+
     /**
      * reset database to its initial state.
      * you are not allowed to complete & modify this function.
      */
     ApiResult resetDatabase();
 
+    /**
+     * run a sequence of calls to this library as one transaction.
+     *
+     * Note that:
+     *      (1) the calls commit nothing on their own, all of their changes
+     *          are committed together after the last one.
+     *      (2) if failFast, the first failed call rolls everything back and
+     *          the calls after it are not run. otherwise a failed call only
+     *          undoes its own changes and the others go on.
+     *      (3) this default runs every call as a transaction of its own, so
+     *          a failed call cannot undo the ones before it. it only suits
+     *          systems without transactions.
+     *
+     * @param calls the calls, each one returns the result of its action
+     * @return ApiResult whose payload is an instance of {@link queries.BatchResults},
+     *         ok if the changes have been committed
+     */
+    default ApiResult runInTransaction(List<? extends Function<? super LibraryManagementSystem, ApiResult>> calls,
+                                       boolean failFast) {
+        List<ApiResult> results = new ArrayList<>(calls.size());
+        for (Function<? super LibraryManagementSystem, ApiResult> call : calls) {
+            ApiResult result = call.apply(this);
+            results.add(result);
+            if (!result.ok && failFast) {
+                return new ApiResult(false, result.message, new BatchResults(false, results));
+            }
+        }
+        return new ApiResult(true, new BatchResults(true, results));
+    }
+
 }
@@ -1,21 +1,49 @@
 import entities.Book;
 import entities.Borrow;
 import entities.Card;
+import entities.Prices;
+import engine.BookFilter;
+import index.BookSearchIndex;
+import mappers.RowMapper;
+import mappers.RowMappers;
+import primitives.IntList;
 import queries.*;
 import utils.DBInitializer;
 import utils.DatabaseConnector;
+import utils.ChangeEvent;
+import utils.ChangeFeed;
+import utils.ChangeLog;
+import utils.ResourceVersion;
+import utils.StringDictionary;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
+    /* use the search index only if it narrows a fuzzy query down to at most this many books */
+    private static final int MAX_INDEX_CANDIDATES = 1000;
+    /* bind at most this many similar values per query, far below the 2100 parameters SQL Server takes */
+    private static final int MAX_SIMILAR_VALUES = 500;
+    /* rows fetched per round trip by the streaming queries, see DatabaseType#url */
+    private static final int STREAM_FETCH_SIZE = Integer.getInteger("library.stream.fetchSize", 1000);
+    /* ids bound per IN list by syncCatalog */
+    private static final int SYNC_CHUNK = 500;
+
     private final DatabaseConnector connector;
+    private final BookSearchIndex searchIndex;
+    /* canonicalizes the low-cardinality columns of every row read */
+    private final StringDictionary dictionary = StringDictionary.ATTRIBUTES;
+    /* while a transaction of several calls runs, the effects of their commits, see #runInTransaction */
+    private List<Runnable> deferred;
 
     public LibraryManagementSystemImpl(DatabaseConnector connector) {
         this.connector = connector;
+        this.searchIndex = BookSearchIndex.of(connector.getConf());
     }
 
     @Override
@@ -43,7 +71,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmt.setString(3, book.getPress());
             pStmt.setInt(4, book.getPublishYear());
             pStmt.setString(5, book.getAuthor());
-            pStmt.setDouble(6, book.getPrice());
+            pStmt.setBigDecimal(6, Prices.toDecimal(book.getPriceCents()));
             pStmt.setInt(7, book.getStock());
             pStmt.executeUpdate();
 
@@ -51,7 +79,11 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (rs.next()) {
                 int bookId = rs.getInt(1);
                 book.setBookId(bookId);
-                commit(conn); // commit the transaction
+                commit(conn, () -> { // commit the transaction, then publish it
+                    ResourceVersion.BOOK.bump();
+                    ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId);
+                    searchIndex.put(book); // make the new book searchable
+                });
                 return new ApiResult(true, bookId); // return the book id
             } else { // if failed to get the book id
                 rollback(conn); // rollback the transaction
@@ -88,7 +120,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                     rollback(conn); // rollback the transaction
                     return new ApiResult(false, "No such book to update stock");
                 }
-                commit(conn); // commit the transaction
+                commit(conn, () -> { // commit the transaction, then publish it
+                    ResourceVersion.BOOK.bump();
+                    ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, bookId);
+                    ChangeFeed.CHANGES.publish(ChangeEvent.stock(bookId, stock + deltaStock));
+                    searchIndex.stock(bookId, stock + deltaStock); // re-rank its completions
+                });
                 return new ApiResult(true, stock + deltaStock); // return the new stock
             }
         } catch (SQLException e) {
@@ -98,57 +135,81 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
     @Override
     public ApiResult storeBook(List<Book> books) {
+        Connection conn = connector.getConn();
+        String insert_sql = "INSERT INTO book (category, title, press, publish_year, author, price, stock) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)"; // insert the book
+        PreparedStatement pStmt = null;
         try {
-            Connection conn = connector.getConn();
-            String exist_check_sql = "SELECT 1 FROM book WHERE category = ? AND title = ? " +
-                    "AND press = ? AND publish_year = ? AND author = ? LIMIT 1"; // check if the book already exists
-            String insert_sql = "INSERT INTO book (category, title, press, publish_year, author, price, stock) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?)"; // insert the book
-            PreparedStatement pStmt = conn.prepareStatement(exist_check_sql);
-            List<Integer> bookIds = new ArrayList<Integer>(); // store the book ids
+            // the unique key of table book rejects a book that already exists,
+            // in the table or earlier in the list, no need to check each one first
+            pStmt = conn.prepareStatement(insert_sql, Statement.RETURN_GENERATED_KEYS);
             for (Book book : books) {
-                pStmt = conn.prepareStatement(exist_check_sql);
-                pStmt.setString(1, book.getCategory());
-                pStmt.setString(2, book.getTitle());
-                pStmt.setString(3, book.getPress());
-                pStmt.setInt(4, book.getPublishYear());
-                pStmt.setString(5, book.getAuthor());
-                ResultSet rs = pStmt.executeQuery();
-                if (rs.next()) { // if the book to be stored already exists
-                    rollback(conn); // rollback the transaction
-                    return new ApiResult(false, "Book to be stored already exists");
-                }
-
-                pStmt = conn.prepareStatement(insert_sql, Statement.RETURN_GENERATED_KEYS);
                 pStmt.setString(1, book.getCategory());
                 pStmt.setString(2, book.getTitle());
                 pStmt.setString(3, book.getPress());
                 pStmt.setInt(4, book.getPublishYear());
                 pStmt.setString(5, book.getAuthor());
-                pStmt.setDouble(6, book.getPrice());
+                pStmt.setBigDecimal(6, Prices.toDecimal(book.getPriceCents()));
                 pStmt.setInt(7, book.getStock());
-                pStmt.executeUpdate();
-                rs = pStmt.getGeneratedKeys(); // get the generated keys, namely the book id
-                if (rs.next()) {
-                    int bookId = rs.getInt(1);
-                    bookIds.add(bookId);
-                } else { // if failed to get the book id
-                    rollback(conn); // rollback the transaction
-                    return new ApiResult(false, "Failed to get book id after storing a book");
-                }
+                pStmt.addBatch();
+            }
+            if (!books.isEmpty()) {
+                pStmt.executeBatch(); // a few round trips for the whole list, see DatabaseType#url
             }
 
+            IntList bookIds = new IntList(books.size()); // store the book ids
+            ResultSet rs = pStmt.getGeneratedKeys(); // get the generated keys, namely the book ids
+            while (rs.next()) {
+                bookIds.add(rs.getInt(1));
+            }
+            if (bookIds.size() != books.size()) { // the driver returns no keys of a batch
+                bookIds = findBookIds(conn, books);
+            }
             for (int i = 0; i < books.size(); i++) {
                 books.get(i).setBookId(bookIds.get(i));
             }
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.BOOK.bump();
+                for (Book book : books) {
+                    ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, book.getBookId());
+                    searchIndex.put(book); // make the new books searchable
+                }
+            });
             return new ApiResult(true, "Books stored successfully");
         } catch (SQLException e) {
+            rollback(conn); // rollback the transaction
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) { // integrity constraint violation
+                return new ApiResult(false, "Book to be stored already exists");
+            }
             return new ApiResult(false, e.getMessage());
+        } finally {
+            close(pStmt);
         }
     }
 
-
+    /* the ids of books just stored, by their unique key */
+    private IntList findBookIds(Connection conn, List<Book> books) throws SQLException {
+        String id_sql = "SELECT book_id FROM book WHERE category = ? AND title = ? AND press = ? AND publish_year = ? AND author = ?";
+        IntList bookIds = new IntList(books.size());
+        PreparedStatement pStmt = conn.prepareStatement(id_sql);
+        try {
+            for (Book book : books) {
+                pStmt.setString(1, book.getCategory());
+                pStmt.setString(2, book.getTitle());
+                pStmt.setString(3, book.getPress());
+                pStmt.setInt(4, book.getPublishYear());
+                pStmt.setString(5, book.getAuthor());
+                ResultSet rs = pStmt.executeQuery();
+                if (!rs.next()) {
+                    throw new SQLException("Failed to get book id after storing a book");
+                }
+                bookIds.add(rs.getInt(1));
+            }
+        } finally {
+            close(pStmt);
+        }
+        return bookIds;
+    }
 
     @Override
     public ApiResult removeBook(int bookId) {
@@ -172,7 +233,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 rollback(conn); // rollback the transaction
                 return new ApiResult(false, "No such book to be removed");
             }
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.BOOK.bump();
+                ResourceVersion.BORROW.bump();
+                ChangeLog.CATALOG.removed(ChangeLog.Kind.BOOK, bookId);
+                searchIndex.remove(bookId);
+            });
             return new ApiResult(true, "Book removed successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -191,14 +257,20 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmt.setString(3, book.getPress());
             pStmt.setInt(4, book.getPublishYear());
             pStmt.setString(5, book.getAuthor());
-            pStmt.setDouble(6, book.getPrice());
+            pStmt.setBigDecimal(6, Prices.toDecimal(book.getPriceCents()));
             pStmt.setInt(7, book.getBookId());
             int affectedRows = pStmt.executeUpdate();
             if (affectedRows == 0) { // if failed to update the book
                 rollback(conn); // rollback the transaction
                 return new ApiResult(false, "No such book to be updated");
             }
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.BOOK.bump();
+                ResourceVersion.BORROW.bump();
+                searchIndex.update(book); // re-index the modified title, author & press
+                ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, book.getBookId());
+                ChangeFeed.CHANGES.publish(ChangeEvent.book(book));
+            });
             return new ApiResult(true, "Book modified successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -207,15 +279,85 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
     @Override
     public ApiResult queryBook(BookQueryConditions conditions) {
+        List<Book> books = new ArrayList<Book>(); // store the books
+        ApiResult result = queryBook(conditions, books::add, 0);
+        if (!result.ok) {
+            return result;
+        }
+        BookQueryResults bookQueryResults = new BookQueryResults(books); // store the book query results
+        bookQueryResults.setCount(books.size());
+        bookQueryResults.setResults(books);
+        return new ApiResult(true, bookQueryResults);
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, Consumer<? super Book> consumer) {
+        return queryBook(conditions, consumer, STREAM_FETCH_SIZE);
+    }
+
+    /* fetchSize 0 lets the driver read all rows at once, a positive one reads them through a cursor */
+    private ApiResult queryBook(BookQueryConditions conditions, Consumer<? super Book> consumer, int fetchSize) {
+        Connection conn = connector.getConn();
+        PreparedStatement pStmt = null;
         try {
-            Connection conn = connector.getConn();
+            int[] candidates = connector.getConf().isSearchIndex() ? // books that may match the fuzzy conditions
+                    searchIndex.candidates(conn, conditions) : null;
+            if (candidates != null && candidates.length == 0) { // no book contains the keywords
+                commit(conn); // commit the transaction
+                return new ApiResult(true, 0);
+            }
+            if (candidates != null && candidates.length > MAX_INDEX_CANDIDATES) { // not selective enough
+                candidates = null;
+            }
+            List<String> titles = null; // titles within the edit distance, in edit distance mode
+            List<String> authors = null; // authors within the edit distance, in edit distance mode
+            if (conditions.getMaxEditDistance() != null) {
+                if (conditions.getTitle() != null) {
+                    titles = searchIndex.similar(conn, BookSearchIndex.Field.TITLE,
+                            conditions.getTitle(), conditions.getMaxEditDistance());
+                }
+                if (conditions.getAuthor() != null) {
+                    authors = searchIndex.similar(conn, BookSearchIndex.Field.AUTHOR,
+                            conditions.getAuthor(), conditions.getMaxEditDistance());
+                }
+                if ((titles != null && titles.isEmpty()) || (authors != null && authors.isEmpty())) {
+                    commit(conn); // commit the transaction
+                    return new ApiResult(true, 0);
+                }
+            }
+            // too many similar values to bind, check the edit distance on the rows instead
+            boolean scan = (titles != null ? titles.size() : 0) + (authors != null ? authors.size() : 0)
+                    > MAX_SIMILAR_VALUES;
+            if (scan) {
+                titles = null;
+                authors = null;
+            }
+            DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+            boolean fullText = connector.isFullTextReady() && candidates == null; // use the DBMS full-text index
+            String titleTerm = fullText && titles == null && !scan && conditions.getTitle() != null ?
+                    initializer.fullTextTerm(conditions.getTitle()) : null;
+            String pressTerm = fullText && conditions.getPress() != null ?
+                    initializer.fullTextTerm(conditions.getPress()) : null;
+            String authorTerm = fullText && authors == null && !scan && conditions.getAuthor() != null ?
+                    initializer.fullTextTerm(conditions.getAuthor()) : null;
             StringBuilder query_sql = new StringBuilder("SELECT * FROM book WHERE 1 = 1"); // query the book
+            if (candidates != null) {
+                appendInList(query_sql, "book_id", candidates.length); // only verify the candidates
+            }
             if (conditions.getCategory() != null) {
                 query_sql.append(" AND category = ?"); // add the exact category condition
             }
-            if (conditions.getTitle() != null) {
+            if (titleTerm != null) {
+                query_sql.append(" AND ").append(initializer.sqlFullTextMatch("title")); // find the title by full-text index
+            }
+            if (titles != null) {
+                appendInList(query_sql, "title", titles.size()); // add the similar titles condition
+            } else if (conditions.getTitle() != null && !scan) {
                 query_sql.append(" AND title LIKE ?"); // add the fuzzy title condition
             }
+            if (pressTerm != null) {
+                query_sql.append(" AND ").append(initializer.sqlFullTextMatch("press")); // find the press by full-text index
+            }
             if (conditions.getPress() != null) {
                 query_sql.append(" AND press LIKE ?"); // add the fuzzy press condition
             }
@@ -225,27 +367,52 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (conditions.getMaxPublishYear() != null) {
                 query_sql.append(" AND publish_year <= ?"); // add the max publish year condition
             }
-            if (conditions.getAuthor() != null) {
+            if (authorTerm != null) {
+                query_sql.append(" AND ").append(initializer.sqlFullTextMatch("author")); // find the author by full-text index
+            }
+            if (authors != null) {
+                appendInList(query_sql, "author", authors.size()); // add the similar authors condition
+            } else if (conditions.getAuthor() != null && !scan) {
                 query_sql.append(" AND author LIKE ?"); // add the fuzzy author condition
             }
-            if (conditions.getMinPrice() != null) {
+            if (conditions.getMinPriceCents() != null) {
                 query_sql.append(" AND price >= ?"); // add the min price condition
             }
-            if (conditions.getMaxPrice() != null) {
+            if (conditions.getMaxPriceCents() != null) {
                 query_sql.append(" AND price <= ?"); // add the max price condition
             }
             query_sql.append(" ORDER BY ").append(conditions.getSortBy().getValue())
                      .append(" ").append(conditions.getSortOrder().getValue())
                     .append(", book_id ASC"); // sort the result
-            PreparedStatement pStmt = conn.prepareStatement(query_sql.toString());
+            String sql = query_sql.toString();
+            if (conditions.getLimit() != null && !scan) { // only fetch the first rows
+                sql = initializer.sqlLimit(sql, conditions.getLimit());
+            }
+            pStmt = conn.prepareStatement(sql);
+            pStmt.setFetchSize(fetchSize);
 
             int parameterIndex = 1;
+            if (candidates != null) {
+                for (int candidate : candidates) {
+                    pStmt.setInt(parameterIndex++, candidate);
+                }
+            }
             if (conditions.getCategory() != null) {
                 pStmt.setString(parameterIndex++, conditions.getCategory());
             }
-            if (conditions.getTitle() != null) {
+            if (titleTerm != null) {
+                pStmt.setString(parameterIndex++, titleTerm);
+            }
+            if (titles != null) {
+                for (String title : titles) {
+                    pStmt.setString(parameterIndex++, title);
+                }
+            } else if (conditions.getTitle() != null && !scan) {
                 pStmt.setString(parameterIndex++, "%" + conditions.getTitle() + "%");
             }
+            if (pressTerm != null) {
+                pStmt.setString(parameterIndex++, pressTerm);
+            }
             if (conditions.getPress() != null) {
                 pStmt.setString(parameterIndex++, "%" + conditions.getPress() + "%");
             }
@@ -255,39 +422,55 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (conditions.getMaxPublishYear() != null) {
                 pStmt.setInt(parameterIndex++, conditions.getMaxPublishYear());
             }
-            if (conditions.getAuthor() != null) {
+            if (authorTerm != null) {
+                pStmt.setString(parameterIndex++, authorTerm);
+            }
+            if (authors != null) {
+                for (String author : authors) {
+                    pStmt.setString(parameterIndex++, author);
+                }
+            } else if (conditions.getAuthor() != null && !scan) {
                 pStmt.setString(parameterIndex++, "%" + conditions.getAuthor() + "%");
             }
-            if (conditions.getMinPrice() != null) {
-                pStmt.setDouble(parameterIndex++, conditions.getMinPrice());
+            if (conditions.getMinPriceCents() != null) {
+                pStmt.setBigDecimal(parameterIndex++, Prices.toDecimal(conditions.getMinPriceCents()));
             }
-            if (conditions.getMaxPrice() != null) {
-                pStmt.setDouble(parameterIndex, conditions.getMaxPrice());
+            if (conditions.getMaxPriceCents() != null) {
+                pStmt.setBigDecimal(parameterIndex, Prices.toDecimal(conditions.getMaxPriceCents()));
             }
 
-            List<Book> books = new ArrayList<Book>(); // store the books
-            int count = 0; // store the number of books
-            ResultSet rs = pStmt.executeQuery();
-            while (rs.next()) {
-                Book book = new Book();
-                book.setBookId(rs.getInt("book_id"));
-                book.setCategory(rs.getString("category"));
-                book.setTitle(rs.getString("title"));
-                book.setPress(rs.getString("press"));
-                book.setPublishYear(rs.getInt("publish_year"));
-                book.setAuthor(rs.getString("author"));
-                book.setPrice(rs.getDouble("price"));
-                book.setStock(rs.getInt("stock"));
-                books.add(book);
-                count++;
+            if (scan) {
+                BookFilter filter = new BookFilter(conditions);
+                int limit = conditions.getLimit() != null ? conditions.getLimit() : Integer.MAX_VALUE;
+                int[] matched = {0}; // the number of books within the edit distance
+                stream(conn, pStmt, RowMappers::book, book -> {
+                    if (matched[0] < limit && filter.test(book)) {
+                        matched[0]++;
+                        consumer.accept(book);
+                    }
+                });
+                return new ApiResult(true, matched[0]);
             }
+            int count = stream(conn, pStmt, RowMappers::book, consumer); // store the number of books
+            return new ApiResult(true, count);
+        } catch (SQLException e) {
+            rollback(conn); // rollback the transaction
+            return new ApiResult(false, e.getMessage());
+        } finally {
+            close(pStmt);
+        }
+    }
 
-            BookQueryResults bookQueryResults = new BookQueryResults(books); // store the book query results
-            bookQueryResults.setCount(count);
-            bookQueryResults.setResults(books);
-
-            commit(conn); // commit the transaction
-            return new ApiResult(true, bookQueryResults);
+    @Override
+    public ApiResult suggestBook(BookSearchIndex.Field field, String prefix, int k) {
+        try {
+            Connection conn = connector.getConn();
+            boolean loaded = searchIndex.isLoaded();
+            List<String> completions = searchIndex.suggest(conn, field, prefix, k);
+            if (!loaded) { // the index has just been read from the database
+                commit(conn); // commit the transaction
+            }
+            return new ApiResult(true, completions);
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
         }
@@ -315,12 +498,11 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (!rs.next()) { // if the book does not exist
                 rollback(conn); // rollback the transaction
                 return new ApiResult(false, "Book to be borrowed does not exist");
-            } else {
-                int stock = rs.getInt(1);
-                if (stock <= 0) { // if the stock is not enough
-                    rollback(conn); // rollback the transaction
-                    return new ApiResult(false, "Stock is not enough");
-                }
+            }
+            int stock = rs.getInt(1); // locked until commit, so one less afterwards
+            if (stock <= 0) { // if the stock is not enough
+                rollback(conn); // rollback the transaction
+                return new ApiResult(false, "Stock is not enough");
             }
 
             String insert_sql = "INSERT INTO borrow (card_id, book_id, borrow_time, return_time) VALUES (?, ?, ?, 0)"; // insert the borrow record
@@ -335,7 +517,14 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmt.setInt(1, borrow.getBookId());
             pStmt.executeUpdate();
 
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.BOOK.bump();
+                ResourceVersion.BORROW.bump();
+                ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, borrow.getBookId()); // the stock
+                ChangeFeed.CHANGES.publish(ChangeEvent.borrow(borrow.getCardId(), borrow.getBookId(), borrow.getBorrowTime()));
+                ChangeFeed.CHANGES.publish(ChangeEvent.stock(borrow.getBookId(), stock - 1));
+                searchIndex.stock(borrow.getBookId(), stock - 1);
+            });
             return new ApiResult(true, "Book borrowed successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -356,7 +545,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 rollback(conn); // rollback the transaction
                 return new ApiResult(false, "Book to be returned has not been borrowed");
             } else {
-                long borrowTime = rs.getLong("borrow_time");
+                long borrowTime = rs.getLong(1);
                 if (borrowTime >= borrow.getReturnTime()) { // if the return time is earlier than the borrow time
                     rollback(conn); // rollback the transaction
                     return new ApiResult(false, "Return time is earlier than borrow time");
@@ -376,7 +565,20 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmt.setInt(1, borrow.getBookId());
             pStmt.executeUpdate();
 
-            commit(conn);
+            String stock_sql = "SELECT stock FROM book WHERE book_id = ?"; // the new stock, the row is locked by the update
+            pStmt = conn.prepareStatement(stock_sql);
+            pStmt.setInt(1, borrow.getBookId());
+            rs = pStmt.executeQuery();
+            int stock = rs.next() ? rs.getInt(1) : 0;
+
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.BOOK.bump();
+                ResourceVersion.BORROW.bump();
+                ChangeLog.CATALOG.changed(ChangeLog.Kind.BOOK, borrow.getBookId()); // the stock
+                ChangeFeed.CHANGES.publish(ChangeEvent.returned(borrow.getCardId(), borrow.getBookId(), borrow.getReturnTime()));
+                ChangeFeed.CHANGES.publish(ChangeEvent.stock(borrow.getBookId(), stock));
+                searchIndex.stock(borrow.getBookId(), stock);
+            });
             return new ApiResult(true, "Book returned successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -385,40 +587,68 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
     @Override
     public ApiResult showBorrowHistory(int cardId) {
+        List<BorrowHistories.Item> items = new ArrayList<BorrowHistories.Item>(); // store the borrow history
+        ApiResult result = showBorrowHistory(cardId, items::add, 0);
+        if (!result.ok) {
+            return result;
+        }
+        BorrowHistories borrowHistories = new BorrowHistories(items); // store the borrow histories
+        borrowHistories.setCount(items.size());
+        borrowHistories.setItems(items);
+        return new ApiResult(true, borrowHistories); // return the borrow histories
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, Consumer<? super BorrowHistories.Item> consumer) {
+        return showBorrowHistory(cardId, consumer, STREAM_FETCH_SIZE);
+    }
+
+    private ApiResult showBorrowHistory(int cardId, Consumer<? super BorrowHistories.Item> consumer, int fetchSize) {
+        Connection conn = connector.getConn();
+        PreparedStatement pStmt = null;
         try {
-            Connection conn = connector.getConn();
             String query_sql = "SELECT * FROM borrow NATURAL JOIN book WHERE card_id = ? ORDER BY borrow_time DESC, book_id ASC"; // query the borrow history
-            PreparedStatement pStmt = conn.prepareStatement(query_sql);
+            pStmt = conn.prepareStatement(query_sql);
+            pStmt.setFetchSize(fetchSize);
             pStmt.setInt(1, cardId);
-            ResultSet rs = pStmt.executeQuery();
+            int count = stream(conn, pStmt, RowMappers::borrowItem, consumer); // store the number of borrow history
+            return new ApiResult(true, count);
+        } catch (SQLException e) {
+            rollback(conn); // rollback the transaction
+            return new ApiResult(false, e.getMessage());
+        } finally {
+            close(pStmt);
+        }
+    }
 
-            List<BorrowHistories.Item> items = new ArrayList<BorrowHistories.Item>(); // store the borrow history
-            int count = 0; // store the number of borrow history
+    /**
+     * Executes a query and passes every mapped row to the consumer, then commits.
+     *
+     * Note that the transaction stays open while rows are consumed, if the
+     * consumer throws, it is rolled back and the exception is passed on.
+     *
+     * @return the number of rows consumed
+     */
+    private <T> int stream(Connection conn, PreparedStatement pStmt, MapperFactory<T> factory,
+                           Consumer<? super T> consumer) throws SQLException {
+        int count = 0;
+        try (ResultSet rs = pStmt.executeQuery()) {
+            RowMapper<T> mapper = factory.bind(rs, dictionary); // resolve the columns once
             while (rs.next()) {
-                BorrowHistories.Item item = new BorrowHistories.Item();
-                item.setCardId(rs.getInt("card_id"));
-                item.setBookId(rs.getInt("book_id"));
-                item.setCategory(rs.getString("category"));
-                item.setTitle(rs.getString("title"));
-                item.setPress(rs.getString("press"));
-                item.setPublishYear(rs.getInt("publish_year"));
-                item.setAuthor(rs.getString("author"));
-                item.setPrice(rs.getDouble("price"));
-                item.setBorrowTime(rs.getLong("borrow_time"));
-                item.setReturnTime(rs.getLong("return_time"));
-                items.add(item);
+                consumer.accept(mapper.map(rs));
                 count++;
             }
-
-            BorrowHistories borrowHistories = new BorrowHistories(items); // store the borrow histories
-            borrowHistories.setCount(count);
-            borrowHistories.setItems(items);
-
-            commit(conn); // commit the transaction
-            return new ApiResult(true, borrowHistories); // return the borrow histories
-    } catch (SQLException e) {
-            return new ApiResult(false, e.getMessage());
+        } catch (RuntimeException | Error e) {
+            rollback(conn); // rollback the transaction
+            throw e;
         }
+        commit(conn); // commit the transaction
+        return count;
+    }
+
+    /* binds a row mapper of a query shape to a result set, see RowMappers */
+    private interface MapperFactory<T> {
+        RowMapper<T> bind(ResultSet rs, StringDictionary dictionary) throws SQLException;
     }
 
     @Override
@@ -447,7 +677,10 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (rs.next()) {
                 int cardId = rs.getInt(1);
                 card.setCardId(cardId);
-                commit(conn); // commit the transaction
+                commit(conn, () -> { // commit the transaction, then publish it
+                    ResourceVersion.CARD.bump();
+                    ChangeLog.CATALOG.changed(ChangeLog.Kind.CARD, cardId);
+                });
                 return new ApiResult(true, "Card registered successfully");
             } else { // if failed to get the card id
                 rollback(conn); // rollback the transaction
@@ -473,7 +706,10 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 rollback(conn); // rollback the transaction
                 return new ApiResult(false, "No such card to be updated");
             }
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.CARD.bump();
+                ChangeLog.CATALOG.changed(ChangeLog.Kind.CARD, card.getCardId());
+            });
             return new ApiResult(true, "Card modified successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -502,7 +738,11 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 return new ApiResult(false, "No such card to be removed");
             }
 
-            commit(conn); // commit the transaction
+            commit(conn, () -> { // commit the transaction, then publish it
+                ResourceVersion.CARD.bump();
+                ResourceVersion.BORROW.bump();
+                ChangeLog.CATALOG.removed(ChangeLog.Kind.CARD, cardId);
+            });
             return new ApiResult(true, "Card removed successfully");
         } catch (SQLException e) {
             return new ApiResult(false, e.getMessage());
@@ -519,13 +759,9 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             List<Card> cards = new ArrayList<Card>(); // store the cards
             int count = 0; // store the number of cards
+            RowMapper<Card> mapper = RowMappers.card(rs, dictionary); // resolve the columns once
             while (rs.next()) {
-                Card card = new Card();
-                card.setCardId(rs.getInt("card_id"));
-                card.setName(rs.getString("name"));
-                card.setDepartment(rs.getString("department"));
-                card.setType(Card.CardType.values(rs.getString("type")));
-                cards.add(card);
+                cards.add(mapper.map(rs));
                 count++;
             }
 
@@ -540,6 +776,61 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
         }
     }
 
+    @Override
+    public ApiResult syncCatalog(long since, int limit) {
+        ChangeLog.Changes changes = ChangeLog.CATALOG.since(since, limit);
+        if (changes.reset) {
+            return new ApiResult(true, new SyncResults(changes.seq, true, false,
+                    new ArrayList<Book>(), new ArrayList<Card>(), new int[0], new int[0]));
+        }
+        try {
+            Connection conn = connector.getConn();
+            List<Book> books = new ArrayList<Book>(changes.books.size());
+            List<Card> cards = new ArrayList<Card>(changes.cards.size());
+            for (int from = 0; from < changes.books.size(); from += SYNC_CHUNK) {
+                int n = Math.min(SYNC_CHUNK, changes.books.size() - from);
+                StringBuilder sql = new StringBuilder("SELECT * FROM book WHERE 1 = 1");
+                appendInList(sql, "book_id", n);
+                PreparedStatement pStmt = conn.prepareStatement(sql.toString());
+                try {
+                    for (int i = 0; i < n; i++) {
+                        pStmt.setInt(i + 1, changes.books.get(from + i));
+                    }
+                    ResultSet rs = pStmt.executeQuery();
+                    RowMapper<Book> mapper = RowMappers.book(rs, dictionary); // resolve the columns once
+                    while (rs.next()) {
+                        books.add(mapper.map(rs));
+                    }
+                } finally {
+                    close(pStmt);
+                }
+            }
+            for (int from = 0; from < changes.cards.size(); from += SYNC_CHUNK) {
+                int n = Math.min(SYNC_CHUNK, changes.cards.size() - from);
+                StringBuilder sql = new StringBuilder("SELECT * FROM card WHERE 1 = 1");
+                appendInList(sql, "card_id", n);
+                PreparedStatement pStmt = conn.prepareStatement(sql.toString());
+                try {
+                    for (int i = 0; i < n; i++) {
+                        pStmt.setInt(i + 1, changes.cards.get(from + i));
+                    }
+                    ResultSet rs = pStmt.executeQuery();
+                    RowMapper<Card> mapper = RowMappers.card(rs, dictionary); // resolve the columns once
+                    while (rs.next()) {
+                        cards.add(mapper.map(rs));
+                    }
+                } finally {
+                    close(pStmt);
+                }
+            }
+            commit(conn); // commit the transaction
+            return new ApiResult(true, new SyncResults(changes.seq, false, changes.more, books, cards,
+                    changes.removedBooks.toArray(), changes.removedCards.toArray()));
+        } catch (SQLException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+    }
+
     @Override
     public ApiResult resetDatabase() {
         Connection conn = connector.getConn();
@@ -552,16 +843,99 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             stmt.addBatch(initializer.sqlCreateCard());
             stmt.addBatch(initializer.sqlCreateBook());
             stmt.addBatch(initializer.sqlCreateBorrow());
+            connector.setFullTextReady(false); // dropped with table book
             stmt.executeBatch();
             commit(conn);
+            if (connector.getConf().isFullText() && initializer.sqlCountBookFullText() != null) {
+                // DDL commits implicitly on MySQL, run it outside the transaction
+                conn.setAutoCommit(true);
+                try {
+                    for (String sql : initializer.sqlCreateBookFullText()) {
+                        stmt.execute(sql);
+                    }
+                } finally {
+                    conn.setAutoCommit(false);
+                }
+                connector.setFullTextReady(true);
+            }
+            searchIndex.reset();
         } catch (Exception e) {
             rollback(conn);
             return new ApiResult(false, e.getMessage());
+        } finally {
+            for (ResourceVersion resource : ResourceVersion.values()) {
+                resource.bump(); // the tables may be dropped even if this failed half way
+            }
+            ChangeLog.CATALOG.clear(); // every mirror starts over
         }
         return new ApiResult(true, null);
     }
 
+    private void appendInList(StringBuilder sql, String column, int n) {
+        sql.append(" AND ").append(column).append(" IN (?");
+        for (int i = 1; i < n; i++) {
+            sql.append(", ?");
+        }
+        sql.append(")");
+    }
+
+    /**
+     * runs the calls on the connection of this library, each from a savepoint of its own,
+     * and commits once after the last one.
+     *
+     * Note:
+     *      (1) while they run, commit() and rollback() of the calls do nothing, a failed
+     *          call is rolled back to its savepoint here, even if it failed on an
+     *          exception and did not roll back itself.
+     *      (2) what the calls publish after committing, versions and index entries,
+     *          is deferred until the transaction commits, and dropped if it does not.
+     */
+    @Override
+    public ApiResult runInTransaction(List<? extends Function<? super LibraryManagementSystem, ApiResult>> calls,
+                                      boolean failFast) {
+        Connection conn = connector.getConn();
+        List<ApiResult> results = new ArrayList<>(calls.size());
+        List<Runnable> effects = new ArrayList<>();
+        deferred = effects;
+        try {
+            for (Function<? super LibraryManagementSystem, ApiResult> call : calls) {
+                Savepoint savepoint = conn.setSavepoint();
+                int published = effects.size();
+                ApiResult result;
+                try {
+                    result = call.apply(this);
+                } catch (RuntimeException e) {
+                    result = new ApiResult(false, String.valueOf(e.getMessage()));
+                }
+                results.add(result);
+                if (!result.ok) {
+                    if (failFast) {
+                        deferred = null;
+                        rollback(conn); // rollback the transaction
+                        return new ApiResult(false, "Action " + results.size() + " failed: " + result.message,
+                                new BatchResults(false, results));
+                    }
+                    conn.rollback(savepoint); // undo the failed call only
+                    effects.subList(published, effects.size()).clear();
+                }
+            }
+            deferred = null;
+            conn.commit(); // commit the transaction
+        } catch (SQLException e) {
+            deferred = null;
+            rollback(conn); // rollback the transaction
+            return new ApiResult(false, e.getMessage(), new BatchResults(false, results));
+        } finally {
+            deferred = null;
+        }
+        effects.forEach(Runnable::run);
+        return new ApiResult(true, new BatchResults(true, results));
+    }
+
     private void rollback(Connection conn) {
+        if (deferred != null) {
+            return; // see #runInTransaction
+        }
         try {
             conn.rollback();
         } catch (Exception e) {
@@ -570,6 +944,9 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
     }
 
     private void commit(Connection conn) {
+        if (deferred != null) {
+            return; // see #runInTransaction
+        }
         try {
             conn.commit();
         } catch (Exception e) {
@@ -577,5 +954,28 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
         }
     }
 
+    /**
+     * commits, then runs effects, which publish the committed changes.
+     */
+    private void commit(Connection conn, Runnable effects) {
+        if (deferred != null) {
+            deferred.add(effects);
+            return;
+        }
+        commit(conn);
+        effects.run();
+    }
+
+    private void close(Statement stmt) {
+        if (stmt == null) {
+            return;
+        }
+        try {
+            stmt.close(); // also releases the server side cursor, if any
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
 
 }
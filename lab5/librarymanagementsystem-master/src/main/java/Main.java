@@ -1,20 +1,44 @@
 import com.sun.net.httpserver.Headers;
+import engine.HeapBookStore;
+import engine.OffHeapBookStore;
+import engine.ParallelBookScan;
+import actions.ActionRequest;
+import actions.BatchRequest;
+import actions.BookStream;
 import entities.Book;
 import entities.Borrow;
 import entities.Card;
+import entities.Prices;
+import http.Body;
+import http.ETags;
+import http.EventStream;
+import http.MicroCache;
+import http.NioHttpServer;
+import http.Responses;
+import index.BKTree;
+import index.BookSearchIndex;
 import queries.ApiResult;
 import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.BorrowHistories;
+import queries.CardList;
 import queries.SortOrder;
+import utils.ChangeFeed;
 import utils.ConnectConfig;
 import utils.DatabaseConnector;
+import utils.ResourceVersion;
 
 import java.io.*;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Condition;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import com.sun.net.httpserver.HttpServer;
@@ -25,8 +49,7 @@ import java.net.InetSocketAddress;
 import java.util.stream.Collectors;
 
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONObject;
-import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONWriter;
 
 
 
@@ -34,32 +57,72 @@ public class Main {
 
     private static final Logger log = Logger.getLogger(Main.class.getName());
     private static DatabaseConnector connector;
+    /* 内存引擎时所有请求共用这一个图书馆，否则为null */
+    private static LibraryManagementSystem memoryLibrary;
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+    /* books stored per transaction by a streamed import */
+    private static final int IMPORT_CHUNK = Integer.getInteger("library.import.chunkSize", 1000);
 
     public static void main(String[] args) {
         try {
-            // parse connection config from "resources/application.yaml"
-            ConnectConfig conf = new ConnectConfig();
-            log.info("Success to parse connect config. " + conf.toString());
-            // connect to database
-            connector = new DatabaseConnector(conf);
-            boolean connStatus = connector.connect();
-            if (!connStatus) {
-                log.severe("Failed to connect database.");
+            // -Dlibrary.engine=memory：整个图书馆放在本进程内存里，不连数据库，重启就没了
+            // -Dlibrary.engine=offheap：同上，但书存在堆外，目录大了也不拖慢GC
+            String engine = System.getProperty("library.engine", "db");
+            if (engine.equals("memory") || engine.equals("offheap")) {
+                memoryLibrary = new InMemoryLibraryManagementSystem(
+                        engine.equals("offheap") ? new OffHeapBookStore() : new HeapBookStore(), new ParallelBookScan());
+                log.info("Using the " + engine + " engine, nothing is stored in a database.");
+            } else if (engine.equals("db")) {
+                // parse connection config from "resources/application.yaml"
+                ConnectConfig conf = new ConnectConfig();
+                log.info("Success to parse connect config. " + conf.toString());
+                // connect to database
+                connector = new DatabaseConnector(conf);
+                boolean connStatus = connector.connect();
+                if (!connStatus) {
+                    log.severe("Failed to connect database.");
+                    System.exit(1);
+                }
+            } else {
+                log.severe("Unknown library.engine: " + engine);
                 System.exit(1);
             }
             /* do somethings */
-            // 创建HTTP服务器，监听指定端口
-            // 这里是8000，建议不要80端口，容易和其他的撞
-            HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
-
             // 添加handler，这里就绑定到/card路由
             // 所以localhost:8000/card是会有handler来处理
-            server.createContext("/card", new CardHandler());
-            server.createContext("/borrow", new BorrowHandler());
-            server.createContext("/book", new BookHandler());
+            Map<String, HttpHandler> contexts = new LinkedHashMap<>();
+            contexts.put("/card", new CardHandler());
+            contexts.put("/borrow", new BorrowHandler());
+            contexts.put("/book", new BookHandler());
+            // 输入联想，走内存里的前缀树，不查库
+            contexts.put("/book/suggest", new SuggestHandler());
+            // 批量导出，边查边写，不在内存里攒结果
+            contexts.put("/export", new ExportHandler());
+            // 多个action一个事务
+            contexts.put("/batch", new BatchHandler());
+            // 库存、借还的变化推给前台屏幕，不用轮询
+            contexts.put("/events", new EventsHandler());
+            // 分馆的目录镜像按序号增量同步，不用每次全量下载
+            contexts.put("/sync", new SyncHandler());
 
-            // 启动服务器
-            server.start();
+            // 创建HTTP服务器，监听指定端口
+            // 这里是8000，建议不要80端口，容易和其他的撞
+            InetSocketAddress address = new InetSocketAddress(8000);
+            Runnable stopServer;
+            if ("nio".equals(System.getProperty("library.http.server"))) {
+                // -Dlibrary.http.server=nio：selector上非阻塞收发，不再一个连接占一个线程，handler不变
+                // 所有handler共用一个数据库连接，worker默认只开一个，连接多了也不会串事务
+                NioHttpServer server = NioHttpServer.create(address, 1024, Integer.getInteger("library.http.workers", 1));
+                contexts.forEach(server::createContext);
+                server.start();
+                stopServer = server::stop;
+            } else {
+                HttpServer server = HttpServer.create(address, 0);
+                contexts.forEach(server::createContext);
+                // 启动服务器
+                server.start();
+                stopServer = () -> server.stop(0);
+            }
 
             // 标识一下，这样才知道我的后端启动了（确信
             System.out.println("Server is listening on port 8000");
@@ -73,7 +136,7 @@ public class Main {
                 if (connector != null && connector.release()) {
                     log.info("Database connection released.");
                 }
-                server.stop(0); // 停止服务器
+                stopServer.run(); // 停止服务器
                 log.info("Server shutdown complete.");
             }));
 
@@ -84,6 +147,126 @@ public class Main {
         }
     }
 
+    /**
+     * Serializes payload straight into a UTF-8 buffer and sends it with an exact
+     * Content-Length, no JSON tree or String is built on the way. large bodies
+     * are compressed if the client accepts it, see {@link Responses}. a null
+     * payload sends an empty body, as the handlers did for failed requests.
+     */
+    static void sendJson(HttpExchange exchange, Object payload) throws IOException {
+        if (payload == null) {
+            exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        try (JSONWriter writer = JSONWriter.ofUTF8()) {
+            writer.writeAny(payload);
+            Responses.send(exchange, 200, JSON_TYPE, writer);
+        }
+    }
+
+    /**
+     * Serializes payload into a body that can be cached and sent many times.
+     */
+    static Body jsonBody(Object payload) {
+        try (JSONWriter writer = JSONWriter.ofUTF8()) {
+            writer.writeAny(payload);
+            return new Body(writer.getBytes(), JSON_TYPE);
+        }
+    }
+
+    /**
+     * Sends a body tagged etag, or an empty one if it failed to load.
+     */
+    static void sendBody(HttpExchange exchange, String etag, Body body) throws IOException {
+        if (body == null) {
+            sendJson(exchange, null);
+            return;
+        }
+        ETags.tag(exchange, etag);
+        Responses.send(exchange, 200, body);
+    }
+
+    /**
+     * The library the handlers work on, chosen by -Dlibrary.engine at startup.
+     * one per request on the database, the single one of the process otherwise.
+     */
+    static LibraryManagementSystem library() {
+        return memoryLibrary != null ? memoryLibrary : new LibraryManagementSystemImpl(connector);
+    }
+
+    /**
+     * Runs one action on library, for its own endpoint or as part of a /batch.
+     * the message of the result is the text the front end shows, on success too.
+     */
+    static ApiResult perform(LibraryManagementSystem library, ActionRequest request) {
+        ApiResult result;
+        String success;
+        switch (request.action()) {
+            case CreateCard:
+                result = library.registerCard(((ActionRequest.CreateCard) request).toCard());
+                success = "Card created successfully";
+                break;
+            case DeleteCard:
+                result = library.removeCard(((ActionRequest.DeleteCard) request).cardId);
+                success = "Card deleted successfully";
+                break;
+            case ModifyCard:
+                result = library.modifyCard(((ActionRequest.ModifyCard) request).toCard());
+                success = "Card modified successfully";
+                break;
+            case AddBook:
+                result = library.storeBook(((ActionRequest.AddBook) request).toBook());
+                success = "Book created successfully";
+                break;
+            case ModifyStock: {
+                ActionRequest.ModifyStock stock = (ActionRequest.ModifyStock) request;
+                result = library.incBookStock(stock.bookId, stock.deltaStock);
+                success = "Book stock modified successfully, the current stock is " + result.payload;
+                break;
+            }
+            case ModifyBook:
+                result = library.modifyBookInfo(((ActionRequest.ModifyBook) request).toBook());
+                success = "Book modified successfully";
+                break;
+            case DeleteBook:
+                result = library.removeBook(((ActionRequest.DeleteBook) request).bookId);
+                success = "Book deleted successfully";
+                break;
+            case BorrowBook:
+                result = library.borrowBook(((ActionRequest.BorrowBook) request).toBorrow());
+                success = "Book borrowed successfully";
+                break;
+            case ReturnBook:
+                result = library.returnBook(((ActionRequest.ReturnBook) request).toBorrow());
+                success = "Book returned successfully";
+                break;
+            default:
+                return new ApiResult(false, "Unknown action");
+        }
+        if (result.ok) {
+            result.message = success;
+        }
+        return result;
+    }
+
+    /* the text responses of the POST actions: 200 with the success message, or 405 with the error */
+    static void sendResult(HttpExchange exchange, ApiResult result) throws IOException {
+        System.out.println(result.message);
+        sendText(exchange, result.ok ? 200 : 405, result.message);
+    }
+
+    static void sendText(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] bytes = response == null ? new byte[0] : response.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        // 流一定要close！！！小心泄漏
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
     static class CardHandler implements HttpHandler {
         // 关键重写handle方法
         @Override
@@ -92,7 +275,7 @@ public class Main {
             Headers headers = exchange.getResponseHeaders();
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
             // 解析请求的方法，看GET还是POST
             String requestMethod = exchange.getRequestMethod();
             // 注意判断要用equals方法而不是==啊，java的小坑（
@@ -112,121 +295,34 @@ public class Main {
         }
 
         private void handleGetRequest(HttpExchange exchange) throws IOException {
-            // 响应头，因为是JSON通信
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            // 状态码为200，也就是status ok
-            exchange.sendResponseHeaders(200, 0);
-            // 获取输出流，java用流对象来进行io操作
-            OutputStream outputStream = exchange.getResponseBody();
-            // 构建JSON响应数据，这里简化为字符串
-            // 这里写的一个固定的JSON，实际可以查表获取数据，然后再拼出想要的JSON
-            String response = "";
-
-            LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector);
-            ApiResult result = library.showCards();
-            if (result.ok) {
-                // [{"cards":[{"cardId":1,"department":"Architecture","name":"User00000","type":"Teacher"}]}]
-                JSONArray jsonArray = new JSONArray(result.payload);
-                JSONArray cards = jsonArray.getJSONObject(0).getJSONArray("cards");
-                response = cards.toString();
-            } else {
-                System.out.println(result.message);
+            // 版本号没变就直接304，不查库也不序列化；版本号要在查库之前取
+            String etag = ETags.of(ResourceVersion.CARD, exchange);
+            if (ETags.notModified(exchange, etag)) {
+                return;
             }
-
-            // 写
-            outputStream.write(response.getBytes());
-            // 流一定要close！！！小心泄漏
-            outputStream.close();
-        }
-
-        private void handlePostRequest(HttpExchange exchange) throws IOException {
-            // 读取POST请求体
-            InputStream requestBody = exchange.getRequestBody();
-            // 用这个请求体（输入流）构造个buffered reader
-            BufferedReader reader = new BufferedReader(new InputStreamReader(requestBody));
-            // 拼字符串的
-            StringBuilder requestBodyBuilder = new StringBuilder();
-            // 用来读的
-            String line;
-            // 没读完，一直读，拼到string builder里
-            while ((line = reader.readLine()) != null) {
-                requestBodyBuilder.append(line);
-            }
-
-            // 看看读到了啥
-            // 实际处理可能会更复杂点
-            System.out.println("Received POST request to create card with data: " + requestBodyBuilder.toString());
-
-            // 响应头
-            exchange.getResponseHeaders().set("Content-Type", "text/plain");
-            String response = "";
-
-            LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector);
-
-            JSONObject jsonObject = JSON.parseObject(requestBodyBuilder.toString());
-            String action = jsonObject.getString("action");
-            if (action.equals("CreateCard")) {
-                Card card = new Card();
-                card.setName((String) jsonObject.get("name"));
-                card.setDepartment((String) jsonObject.get("department"));
-                Card.CardType type = null;
-                if (jsonObject.get("type").equals("Student")) {
-                    type = Card.CardType.values("S");
-                } else if (jsonObject.get("type").equals("Teacher")) {
-                    type = Card.CardType.values("T");
-                }
-                card.setType(type);
-
-                ApiResult result = library.registerCard(card);
-                if (result.ok) {
-                    System.out.println("Card created successfully");
-                    response = "Card created successfully";
-                    exchange.sendResponseHeaders(200, 0);
-                } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, -1);
-                }
-            } else if (action.equals("DeleteCard")) {
-                int cardId = jsonObject.getIntValue("cardId");
-                ApiResult result = library.removeCard(cardId);
-                if (result.ok) {
-                    System.out.println("Card deleted successfully");
-                    response = "Card deleted successfully";
-                    exchange.sendResponseHeaders(200, 0);
-                } else {
+            // 短时间内的相同请求直接复用序列化好的字节
+            Body body = MicroCache.RESPONSES.get(MicroCache.key(exchange), etag, () -> {
+                LibraryManagementSystem library = library();
+                ApiResult result = library.showCards();
+                if (!result.ok) {
                     System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, -1);
-                }
-            } else if (action.equals("ModifyCard")) {
-                Card card = new Card();
-                card.setCardId(jsonObject.getIntValue("cardId"));
-                card.setName((String) jsonObject.get("name"));
-                card.setDepartment((String) jsonObject.get("department"));
-                Card.CardType type = null;
-                if (jsonObject.get("type").equals("Student")) {
-                    type = Card.CardType.values("S");
-                } else if (jsonObject.get("type").equals("Teacher")) {
-                    type = Card.CardType.values("T");
+                    return null;
                 }
-                card.setType(type);
+                // [{"cardId":1,"department":"Architecture","name":"User00000","type":"Teacher"}]
+                return jsonBody(((CardList) result.payload).getCards());
+            });
+            sendBody(exchange, etag, body);
+        }
 
-                ApiResult result = library.modifyCard(card);
-                if (result.ok) {
-                    System.out.println("Card modified successfully");
-                    response = "Card modified successfully";
-                    exchange.sendResponseHeaders(200, 0);
-                } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, -1);
-                }
+        private void handlePostRequest(HttpExchange exchange) throws IOException {
+            // 请求体直接绑定到对应action的类型上，不再先拼字符串、再建JSONObject
+            ActionRequest request = ActionRequest.read(exchange.getRequestBody());
+            if (request == null || !request.action().path().equals("/card")) {
+                sendText(exchange, 400, "Unknown action");
+                return;
             }
-
-            OutputStream outputStream = exchange.getResponseBody();
-            outputStream.write(response.getBytes());
-            outputStream.close();
+            LibraryManagementSystem library = library();
+            sendResult(exchange, perform(library, request));
         }
 
         private void handleOptionsRequest(HttpExchange exchange) throws IOException {
@@ -235,7 +331,57 @@ public class Main {
         }
     }
 
-    static class BorrowHandler implements HttpHandler {
+    static class SyncHandler implements HttpHandler {
+        /* rows per response unless the mirror asks for fewer */
+        private static final int MAX_LIMIT = 10000;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("GET")) {
+                handleGetRequest(exchange);
+            } else if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        private void handleGetRequest(HttpExchange exchange) throws IOException {
+            // /sync?since=1717000000000123&limit=1000
+            Map<String, String> params = BookHandler.parseQueryParams(exchange.getRequestURI().getQuery());
+            long since;
+            int limit;
+            try {
+                // 没带since就是第一次同步，会让它先全量拉一遍
+                since = params.get("since") != null ? Long.parseLong(params.get("since")) : 0;
+                limit = params.get("limit") != null ? Integer.parseInt(params.get("limit")) : 1000;
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (limit <= 0) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            LibraryManagementSystem library = library();
+            ApiResult result = library.syncCatalog(since, Math.min(limit, MAX_LIMIT));
+            if (!result.ok) {
+                System.out.println(result.message);
+                sendText(exchange, 500, result.message);
+                return;
+            }
+            // {"books":[...],"cards":[...],"more":false,"removedBooks":[3],"removedCards":[],"reset":false,"seq":1717000000000130}
+            sendJson(exchange, result.payload);
+        }
+    }
+
+    static class EventsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             // 允许所有域的请求，cors处理
@@ -243,6 +389,63 @@ public class Main {
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
             headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("GET")) {
+                // 连接一直开着，事件由后台线程写，这里直接返回
+                EventStream.open(exchange, ChangeFeed.CHANGES);
+            } else if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    static class BatchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "POST, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("POST")) {
+                handlePostRequest(exchange);
+            } else if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        private void handlePostRequest(HttpExchange exchange) throws IOException {
+            // 一串action一次往返、一个事务、一次commit；failFast=false时失败的那个只回滚它自己
+            BatchRequest request = BatchRequest.read(exchange.getRequestBody());
+            if (request == null) {
+                sendText(exchange, 400, "Unknown action");
+                return;
+            }
+            List<Function<LibraryManagementSystem, ApiResult>> calls = new ArrayList<>(request.actions.size());
+            for (ActionRequest action : request.actions) {
+                calls.add(library -> perform(library, action));
+            }
+            LibraryManagementSystem library = library();
+            ApiResult result = library.runInTransaction(calls, request.failFast);
+            System.out.println(result.ok ? "Batch of " + calls.size() + " actions committed" : result.message);
+            // {"committed":true,"results":[{"message":"Book created successfully","ok":true,"payload":1},...]}
+            sendJson(exchange, result.payload);
+        }
+    }
+
+    static class BorrowHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
             // 解析请求的方法，看GET还是POST
             String requestMethod = exchange.getRequestMethod();
             // 注意判断要用equals方法而不是==啊，java的小坑（
@@ -277,33 +480,34 @@ public class Main {
         private void handleGetRequest(HttpExchange exchange) throws IOException {
             String query = exchange.getRequestURI().getQuery();
             System.out.println("Received GET request for borrowHistory with query: " + query);
+            String etag = ETags.of(ResourceVersion.BORROW, exchange);
+            if (ETags.notModified(exchange, etag)) {
+                return;
+            }
 
-            Map<String, String> params = parseQueryParams(query);
-
-            int cardId = Integer.parseInt(params.get("cardId"));
-
-            LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector);
-            ApiResult result = library.showBorrowHistory(cardId);
+            Body body;
+            try {
+                body = MicroCache.RESPONSES.get(MicroCache.key(exchange), etag, () -> {
+                    Map<String, String> params = parseQueryParams(query);
 
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, 0);
-            OutputStream outputStream = exchange.getResponseBody();
-            String response = "";
+                    int cardId = Integer.parseInt(params.get("cardId"));
 
-            if (result.ok) {
-                // [{"count":1,"items":[{"author":"Yuuku","bookId":1,"borrowTime":1743091450180,"cardId":1,"category":"Nature",
-                // "press":"Press-C","price":198.46,"publishYear":2000,"returnTime":0,"title":"Le Petit Prince"}]}]
-                JSONArray jsonArray = new JSONArray(result.payload);
-                JSONArray borrowHistory = jsonArray.getJSONObject(0).getJSONArray("items");
-                response = borrowHistory.toString();
-            } else {
-                System.out.println(result.message);
+                    LibraryManagementSystem library = library();
+                    ApiResult result = library.showBorrowHistory(cardId);
+                    if (!result.ok) {
+                        System.out.println(result.message);
+                        return null;
+                    }
+                    // [{"author":"Yuuku","bookId":1,"borrowTime":1743091450180,"cardId":1,"category":"Nature",
+                    // "press":"Press-C","price":198.46,"publishYear":2000,"returnTime":0,"title":"Le Petit Prince"}]
+                    return jsonBody(((BorrowHistories) result.payload).getItems());
+                });
+            } catch (IllegalArgumentException e) {
+                // cardId 没给或者不是数字，和 /book 一样回400
+                sendText(exchange, 400, e.getMessage());
+                return;
             }
-
-            // 写
-            outputStream.write(response.getBytes());
-            // 流一定要close！！！小心泄漏
-            outputStream.close();
+            sendBody(exchange, etag, body);
         }
 
         private void handleOptionsRequest(HttpExchange exchange) throws IOException {
@@ -319,7 +523,7 @@ public class Main {
             Headers headers = exchange.getResponseHeaders();
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
-            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
             // 解析请求的方法，看GET还是POST
             String requestMethod = exchange.getRequestMethod();
             // 注意判断要用equals方法而不是==啊，java的小坑（
@@ -354,13 +558,12 @@ public class Main {
             return queryParams;
         }
 
-        private void handleGetRequest(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            System.out.println("Received GET request for borrowHistory with query: " + query);
-
+        /*
+         * the query conditions of /book and /export/books,
+         * throws IllegalArgumentException (NumberFormatException included) on a bad number
+         */
+        static BookQueryConditions parseConditions(Map<String, String> params) {
             BookQueryConditions conditions = new BookQueryConditions();
-
-            Map<String, String> params = parseQueryParams(query);
             String Category = params.get("category");
             String Title = params.get("title");
             String Author = params.get("author");
@@ -374,12 +577,29 @@ public class Main {
                 conditions.setMaxPublishYear(MaxPublishYear);
             }
             if (params.get("minPrice") != null) {
-                double MinPrice = Double.parseDouble(params.get("minPrice"));
-                conditions.setMinPrice(MinPrice);
+                long MinPrice = Prices.parse(params.get("minPrice"));
+                conditions.setMinPriceCents(MinPrice);
             }
             if (params.get("maxPrice") != null) {
-                double MaxPrice = Double.parseDouble(params.get("maxPrice"));
-                conditions.setMaxPrice(MaxPrice);
+                long MaxPrice = Prices.parse(params.get("maxPrice"));
+                conditions.setMaxPriceCents(MaxPrice);
+            }
+            if (params.get("limit") != null) {
+                // 只要第一屏的结果
+                int limit = Integer.parseInt(params.get("limit"));
+                if (limit <= 0) {
+                    throw new IllegalArgumentException("limit must be positive: " + limit);
+                }
+                conditions.setLimit(limit);
+            }
+            if (params.get("maxEditDistance") != null) {
+                // 容错查询，作者/书名拼错几个字母也能搜到
+                int maxEditDistance = Integer.parseInt(params.get("maxEditDistance"));
+                if (maxEditDistance < 0) {
+                    throw new IllegalArgumentException("maxEditDistance must not be negative: " + maxEditDistance);
+                }
+                // 距离再大几乎每本书都算相似，还要遍历整棵 BK 树
+                conditions.setMaxEditDistance(Math.min(maxEditDistance, BKTree.MAX_DISTANCE));
             }
             if (params.get("sortBy") != null) {
                 String sortBy = params.get("sortBy");
@@ -413,204 +633,324 @@ public class Main {
             conditions.setTitle(Title);
             conditions.setPress(Press);
             conditions.setAuthor(Author);
+            return conditions;
+        }
 
-            // 响应头，因为是JSON通信
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            // 状态码为200，也就是status ok
-            exchange.sendResponseHeaders(200, 0);
-            // 获取输出流，java用流对象来进行io操作
-            OutputStream outputStream = exchange.getResponseBody();
-            // 构建JSON响应数据，这里简化为字符串
-            // 这里写的一个固定的JSON，实际可以查表获取数据，然后再拼出想要的JSON
-            String response = "";
-
-            LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector);
-            ApiResult result = library.queryBook(conditions);
-            if (result.ok) {
-                // [{"count":1,"results":[{"author":"Yuuku","bookId":1,"category":"Nature","press":"Press-C","price":198.46,"publishYear":2000,"stock":0,"title":"Le Petit Prince"}]}]
-                JSONArray jsonArray = new JSONArray(result.payload);
-                JSONArray books = jsonArray.getJSONObject(0).getJSONArray("results");
-                response = books.toString();
-            } else {
-                System.out.println(result.message);
+        private void handleGetRequest(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getQuery();
+            System.out.println("Received GET request for borrowHistory with query: " + query);
+            String etag = ETags.of(ResourceVersion.BOOK, exchange);
+            if (ETags.notModified(exchange, etag)) {
+                return;
             }
 
-            // 写
-            outputStream.write(response.getBytes());
-            // 流一定要close！！！小心泄漏
-            outputStream.close();
+            // 命中时连参数解析和条件对象都省掉
+            Body body;
+            try {
+                body = MicroCache.RESPONSES.get(MicroCache.key(exchange), etag, () -> {
+                    BookQueryConditions conditions = parseConditions(parseQueryParams(query));
+
+                    LibraryManagementSystem library = library();
+                    ApiResult result = library.queryBook(conditions);
+                    if (!result.ok) {
+                        System.out.println(result.message);
+                        return null;
+                    }
+                    // [{"author":"Yuuku","bookId":1,"category":"Nature","press":"Press-C","price":198.46,"publishYear":2000,"stock":0,"title":"Le Petit Prince"}]
+                    return jsonBody(((BookQueryResults) result.payload).getResults());
+                });
+            } catch (IllegalArgumentException e) {
+                // 参数不对，回400，不要让连接直接断掉
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            sendBody(exchange, etag, body);
         }
 
         private void handlePostRequest(HttpExchange exchange) throws IOException {
-            InputStream requestBody = exchange.getRequestBody();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(requestBody));
-            StringBuilder requestBodyBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                requestBodyBuilder.append(line);
-            }
-            System.out.println("Received POST request to create book with data: " + requestBodyBuilder.toString());
-
-            exchange.getResponseHeaders().set("Content-Type", "text/plain");
-            String response = "";
-
-            LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector);
-            JSONObject jsonObject = JSON.parseObject(requestBodyBuilder.toString());
-            String action = jsonObject.getString("action");
-            if (action.equals("AddBook")) {
-                Book book = new Book();
-                book.setTitle((String) jsonObject.get("title"));
-                book.setCategory((String) jsonObject.get("category"));
-                book.setPress((String) jsonObject.get("press"));
-                book.setAuthor((String) jsonObject.get("author"));
-                book.setPublishYear(jsonObject.getIntValue("publishYear"));
-                book.setPrice(jsonObject.getDoubleValue("price"));
-                book.setStock(jsonObject.getIntValue("stock"));
-
-                ApiResult result = library.storeBook(book);
-                if (result.ok) {
-                    System.out.println("Book created successfully");
-                    response = "Book created successfully";
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
-                } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
-                }
-            } else if (action.equals("AddBatch")) {
-                // D:\study\year2sem2\dbs\db_lab\lab5\librarymanagementsystem-master\src\test\BookBatch.json
-                String filePath = (String) jsonObject.get("path");
-                File file = new File(filePath);
-                if (!file.exists()) {
-                    System.out.println("File not found: " + filePath);
-                    response = "File not found";
-                    exchange.sendResponseHeaders(404, response.getBytes().length);
-                } else {
-                    String jsonString = new String(java.nio.file.Files.readAllBytes(file.toPath()));
-                    JSONArray jsonArray = JSON.parseArray(jsonString);
-                    JSONArray books = jsonArray.getJSONObject(0).getJSONArray("books");
-
-                    ArrayList<Book> bookList = new ArrayList<>();
-                    for (int i = 0; i < books.size(); i++) {
-                        Book book = new Book();
-                        JSONObject bookJson = books.getJSONObject(i);
-                        book.setTitle(bookJson.getString("title"));
-                        book.setCategory(bookJson.getString("category"));
-                        book.setPress(bookJson.getString("press"));
-                        book.setAuthor(bookJson.getString("author"));
-                        book.setPublishYear(bookJson.getIntValue("publishYear"));
-                        book.setPrice(bookJson.getDoubleValue("price"));
-                        book.setStock(bookJson.getIntValue("stock"));
-                        bookList.add(book);
-                    }
-                    ApiResult result = library.storeBook(bookList);
+            if ("AddBatch".equals(parseQueryParams(exchange.getRequestURI().getQuery()).get("action"))) {
+                // POST /book?action=AddBatch，书直接放在请求体里
+                handleImport(exchange);
+                return;
+            }
+            ActionRequest request = ActionRequest.read(exchange.getRequestBody());
+            if (request == null || !request.action().path().equals("/book")) {
+                sendText(exchange, 400, "Unknown action");
+                return;
+            }
+            LibraryManagementSystem library = library();
+            sendResult(exchange, perform(library, request));
+        }
 
-                    if (result.ok) {
-                        System.out.println("Books created successfully");
-                        response = "Books created successfully";
-                        exchange.sendResponseHeaders(200, response.getBytes().length);
-                    } else {
-                        System.out.println(result.message);
-                        response = result.message;
-                        exchange.sendResponseHeaders(405, response.getBytes().length);
+        /*
+         * body: a JSON array of books, or one book per line
+         * response: {"imported":1000}\n ... {"ok":true,"imported":2500,"message":"..."}\n
+         */
+        private void handleImport(HttpExchange exchange) throws IOException {
+            // 边读边插，每凑满一块就单独提交一次，内存里最多一块书
+            OutputStream out = Responses.stream(exchange, 200, "application/x-ndjson");
+            LibraryManagementSystem library = library();
+            List<Book> chunk = new ArrayList<>(IMPORT_CHUNK);
+            int imported = 0;
+            ApiResult result = new ApiResult(true, null);
+            try (BookStream books = new BookStream(exchange.getRequestBody()); OutputStream body = out) {
+                while (result.ok) {
+                    Book book;
+                    try {
+                        book = books.next();
+                    } catch (IOException e) {
+                        // 请求体坏了，已经提交的块保留
+                        result = new ApiResult(false, e.getMessage());
+                        break;
+                    }
+                    if (book != null) {
+                        chunk.add(book);
+                    }
+                    if (chunk.size() == IMPORT_CHUNK || book == null && !chunk.isEmpty()) {
+                        result = library.storeBook(chunk);
+                        if (result.ok) {
+                            imported += chunk.size();
+                            chunk = new ArrayList<>(IMPORT_CHUNK); // 上一块已经进了索引，不能复用
+                            // 每块报一次进度
+                            body.write(progress(imported, null));
+                            body.flush();
+                        }
+                    }
+                    if (book == null) {
+                        break;
                     }
                 }
-            } else if (action.equals("ModifyStock")) {
-                int bookId = jsonObject.getIntValue("bookId");
-                int deltaStock = jsonObject.getIntValue("deltaStock");
-                ApiResult result = library.incBookStock(bookId, deltaStock);
-                if (result.ok) {
-                    System.out.println("Book stock modified successfully, the current stock is " + result.payload);
-                    response = "Book stock modified successfully, the current stock is " + result.payload;
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
-                } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
-                }
-            } else if (action.equals("ModifyBook")) {
-                Book book = new Book();
-                book.setBookId(jsonObject.getIntValue("bookId"));
-                book.setTitle((String) jsonObject.get("title"));
-                book.setCategory((String) jsonObject.get("category"));
-                book.setPress((String) jsonObject.get("press"));
-                book.setAuthor((String) jsonObject.get("author"));
-                book.setPublishYear(jsonObject.getIntValue("publishYear"));
-                book.setPrice(jsonObject.getDoubleValue("price"));
-                book.setStock(jsonObject.getIntValue("stock"));
-
-                ApiResult result = library.modifyBookInfo(book);
                 if (result.ok) {
-                    System.out.println("Book modified successfully");
-                    response = "Book modified successfully";
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
+                    result.message = "Successfully imported " + imported + " books";
                 } else {
                     System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
                 }
-            } else if (action.equals("DeleteBook")) {
-                int bookId = jsonObject.getIntValue("bookId");
-                ApiResult result = library.removeBook(bookId);
-                if (result.ok) {
-                    System.out.println("Book deleted successfully");
-                    response = "Book deleted successfully";
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
-                } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
+                body.write(progress(imported, result));
+            }
+        }
+
+        private static byte[] progress(int imported, ApiResult result) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            if (result != null) {
+                line.put("ok", result.ok);
+            }
+            line.put("imported", imported);
+            if (result != null) {
+                line.put("message", result.message);
+            }
+            byte[] json = JSON.toJSONBytes(line);
+            byte[] bytes = Arrays.copyOf(json, json.length + 1);
+            bytes[json.length] = '\n';
+            return bytes;
+        }
+
+        private void handleOptionsRequest(HttpExchange exchange) throws IOException {
+            // OPTIONS请求直接返回204 No Content
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+
+    static class SuggestHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("GET")) {
+                handleGetRequest(exchange);
+            } else if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        private void handleGetRequest(HttpExchange exchange) throws IOException {
+            // /book/suggest?field=title&prefix=Data&k=10
+            Map<String, String> params = BookHandler.parseQueryParams(exchange.getRequestURI().getRawQuery());
+            BookSearchIndex.Field field = null;
+            for (BookSearchIndex.Field f : BookSearchIndex.Field.values()) {
+                if (f.getColumn().equals(params.get("field"))) {
+                    field = f;
                 }
-            } else if (action.equals("BorrowBook")) {
-                Borrow borrow = new Borrow();
-                int bookId = jsonObject.getIntValue("bookId");
-                int cardId = jsonObject.getIntValue("cardId");
-                long borrowTime = jsonObject.getLong("borrowTime");
-
-                borrow.setBookId(bookId);
-                borrow.setCardId(cardId);
-                borrow.setBorrowTime(borrowTime);
-                borrow.setReturnTime(0);
-
-                ApiResult result = library.borrowBook(borrow);
-                if (result.ok) {
-                    System.out.println("Book borrowed successfully");
-                    response = "Book borrowed successfully";
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
+            }
+            String prefix = params.get("prefix");
+            if (field == null || prefix == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            prefix = URLDecoder.decode(prefix, "UTF-8");
+            int k;
+            try {
+                k = params.get("k") != null ? Integer.parseInt(params.get("k")) : 10;
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (k <= 0) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            LibraryManagementSystem library = library();
+            ApiResult result = library.suggestBook(field, prefix, k);
+            if (result.ok) {
+                sendJson(exchange, result.payload);
+            } else {
+                System.out.println(result.message);
+                sendJson(exchange, new ArrayList<String>());
+            }
+        }
+    }
+
+    static class ExportHandler implements HttpHandler {
+        /* rows are buffered up to this many bytes before a chunk is written to the socket */
+        private static final int CHUNK_SIZE = 1 << 16;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("GET")) {
+                handleGetRequest(exchange);
+            } else if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        private void handleGetRequest(HttpExchange exchange) throws IOException {
+            // /export/books?format=csv&category=Nature 或 /export/borrows?cardId=1&format=ndjson
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> params = BookHandler.parseQueryParams(exchange.getRequestURI().getQuery());
+            boolean csv = "csv".equals(params.get("format"));
+            boolean books = path.equals("/export/books");
+            if (!books && !path.equals("/export/borrows")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!books && params.get("cardId") == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            // 参数先解析完，出错时还能回4xx；开始写流以后就只能断开连接了
+            BookQueryConditions conditions;
+            int cardId;
+            try {
+                conditions = books ? BookHandler.parseConditions(params) : null;
+                cardId = books ? 0 : Integer.parseInt(params.get("cardId"));
+            } catch (IllegalArgumentException e) { // NumberFormatException included
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            // 长度未知，chunked传输；写满一块就发，socket写不动时这里会阻塞，游标也就停在原地
+            // 客户端支持的话边写边压缩
+            OutputStream body = Responses.stream(exchange, 200, csv ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            LibraryManagementSystem library = library();
+            StringBuilder row = new StringBuilder(256);
+            try (OutputStream outputStream = new BufferedOutputStream(body, CHUNK_SIZE)) {
+                ApiResult result;
+                if (books) {
+                    if (csv) {
+                        write(outputStream, "bookId,category,title,press,publishYear,author,price,stock\n");
+                    }
+                    result = library.queryBook(conditions, book -> {
+                        if (!csv) {
+                            writeJson(outputStream, book);
+                            return;
+                        }
+                        row.setLength(0);
+                        row.append(book.getBookId()).append(',');
+                        appendCsv(row, book.getCategory()).append(',');
+                        appendCsv(row, book.getTitle()).append(',');
+                        appendCsv(row, book.getPress()).append(',');
+                        row.append(book.getPublishYear()).append(',');
+                        appendCsv(row, book.getAuthor()).append(',');
+                        row.append(Prices.format(book.getPriceCents())).append(',');
+                        row.append(book.getStock()).append('\n');
+                        write(outputStream, row);
+                    });
                 } else {
-                    System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
+                    if (csv) {
+                        write(outputStream, "cardId,bookId,category,title,press,publishYear,author,price,borrowTime,returnTime\n");
+                    }
+                    result = library.showBorrowHistory(cardId, item -> {
+                        if (!csv) {
+                            writeJson(outputStream, item);
+                            return;
+                        }
+                        row.setLength(0);
+                        row.append(item.getCardId()).append(',');
+                        row.append(item.getBookId()).append(',');
+                        appendCsv(row, item.getCategory()).append(',');
+                        appendCsv(row, item.getTitle()).append(',');
+                        appendCsv(row, item.getPress()).append(',');
+                        row.append(item.getPublishYear()).append(',');
+                        appendCsv(row, item.getAuthor()).append(',');
+                        row.append(Prices.format(item.getPriceCents())).append(',');
+                        row.append(item.getBorrowTime()).append(',');
+                        row.append(item.getReturnTime()).append('\n');
+                        write(outputStream, row);
+                    });
                 }
-            } else if (action.equals("ReturnBook")) {
-                Borrow borrow = new Borrow();
-                int bookId = jsonObject.getIntValue("bookId");
-                int cardId = jsonObject.getIntValue("cardId");
-                long returnTime = jsonObject.getLong("returnTime");
-                borrow.setBookId(bookId);
-                borrow.setCardId(cardId);
-                borrow.setReturnTime(returnTime);
-
-                ApiResult result = library.returnBook(borrow);
-                if (result.ok) {
-                    System.out.println("Book returned successfully");
-                    response = "Book returned successfully";
-                    exchange.sendResponseHeaders(200, response.getBytes().length);
-                } else {
+                if (!result.ok) {
+                    // 头已经发出去了，只能记一下，客户端看到的是截断的导出
                     System.out.println(result.message);
-                    response = result.message;
-                    exchange.sendResponseHeaders(405, response.getBytes().length);
                 }
+            } catch (UncheckedIOException e) {
+                // 客户端断开，事务已经回滚
+                System.out.println("Export aborted: " + e.getCause().getMessage());
             }
+        }
 
-            OutputStream outputStream = exchange.getResponseBody();
-            outputStream.write(response.getBytes());
-            outputStream.close();
+        private static void writeJson(OutputStream out, Object row) {
+            try {
+                out.write(JSON.toJSONBytes(row));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
-        private void handleOptionsRequest(HttpExchange exchange) throws IOException {
-            // OPTIONS请求直接返回204 No Content
-            exchange.sendResponseHeaders(204, -1);
+
+        private static void write(OutputStream out, CharSequence text) {
+            try {
+                out.write(text.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /* RFC 4180: quote a field if it holds a separator, a quote or a line break */
+        private static StringBuilder appendCsv(StringBuilder sb, String field) {
+            if (field == null) {
+                return sb;
+            }
+            boolean quote = false;
+            for (int i = 0; i < field.length() && !quote; i++) {
+                char c = field.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return sb.append(field);
+            }
+            sb.append('"');
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+            return sb.append('"');
         }
     }
 }
-
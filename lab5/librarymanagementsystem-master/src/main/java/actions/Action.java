@@ -0,0 +1,32 @@
+package actions;
+
+/**
+ * The actions of the POST endpoints, named as the "action" key of the request
+ * body. every action is bound to its own {@link ActionRequest} subclass.
+ */
+public enum Action {
+    /* /card */
+    CreateCard("/card"),
+    DeleteCard("/card"),
+    ModifyCard("/card"),
+    /* /book */
+    AddBook("/book"),
+    ModifyStock("/book"),
+    ModifyBook("/book"),
+    DeleteBook("/book"),
+    BorrowBook("/book"),
+    ReturnBook("/book");
+
+    private final String path;
+
+    Action(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return the endpoint the action is posted to on its own, any of them can be part of a /batch
+     */
+    public String path() {
+        return path;
+    }
+}
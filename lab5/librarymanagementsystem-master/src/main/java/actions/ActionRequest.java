@@ -0,0 +1,199 @@
+package actions;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.annotation.JSONType;
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import entities.Prices;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The body of a POST request, bound to the subclass named by its "action" key.
+ *
+ * Note:
+ *      (1) the body is read straight from the request stream into the typed
+ *          request, fastjson2 builds and caches one reader per class, so no
+ *          JSONObject tree nor String of the body is made on the way.
+ *      (2) prices are read as decimals, not through doubles, see {@link Prices}.
+ *      (3) handlers dispatch on {@link #action()}, the subclasses only carry
+ *          the fields of their action and how to turn them into entities.
+ */
+@JSONType(typeKey = "action", seeAlso = {
+        ActionRequest.CreateCard.class, ActionRequest.DeleteCard.class, ActionRequest.ModifyCard.class,
+        ActionRequest.AddBook.class, ActionRequest.ModifyStock.class,
+        ActionRequest.ModifyBook.class, ActionRequest.DeleteBook.class,
+        ActionRequest.BorrowBook.class, ActionRequest.ReturnBook.class})
+public abstract class ActionRequest {
+
+    public abstract Action action();
+
+    /**
+     * @return the request of the body, or null if the body is not a known action
+     */
+    public static ActionRequest read(InputStream body) {
+        try {
+            return JSON.parseObject(body, StandardCharsets.UTF_8, ActionRequest.class);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    @JSONType(typeName = "CreateCard")
+    public static class CreateCard extends ActionRequest {
+        public String name;
+        public String department;
+        public Card.CardType type;
+
+        @Override
+        public Action action() {
+            return Action.CreateCard;
+        }
+
+        public Card toCard() {
+            Card card = new Card();
+            card.setName(name);
+            card.setDepartment(department);
+            card.setType(type);
+            return card;
+        }
+    }
+
+    @JSONType(typeName = "ModifyCard")
+    public static class ModifyCard extends CreateCard {
+        public int cardId;
+
+        @Override
+        public Action action() {
+            return Action.ModifyCard;
+        }
+
+        @Override
+        public Card toCard() {
+            Card card = super.toCard();
+            card.setCardId(cardId);
+            return card;
+        }
+    }
+
+    @JSONType(typeName = "DeleteCard")
+    public static class DeleteCard extends ActionRequest {
+        public int cardId;
+
+        @Override
+        public Action action() {
+            return Action.DeleteCard;
+        }
+    }
+
+    @JSONType(typeName = "AddBook")
+    public static class AddBook extends ActionRequest {
+        public String category;
+        public String title;
+        public String press;
+        public int publishYear;
+        public String author;
+        public BigDecimal price;
+        public int stock;
+
+        @Override
+        public Action action() {
+            return Action.AddBook;
+        }
+
+        public Book toBook() {
+            Book book = new Book();
+            book.setCategory(category);
+            book.setTitle(title);
+            book.setPress(press);
+            book.setPublishYear(publishYear);
+            book.setAuthor(author);
+            book.setPriceCents(price == null ? 0 : Prices.toCents(price));
+            book.setStock(stock);
+            return book;
+        }
+    }
+
+    @JSONType(typeName = "ModifyBook")
+    public static class ModifyBook extends AddBook {
+        public int bookId;
+
+        @Override
+        public Action action() {
+            return Action.ModifyBook;
+        }
+
+        @Override
+        public Book toBook() {
+            Book book = super.toBook();
+            book.setBookId(bookId);
+            return book;
+        }
+    }
+
+    @JSONType(typeName = "DeleteBook")
+    public static class DeleteBook extends ActionRequest {
+        public int bookId;
+
+        @Override
+        public Action action() {
+            return Action.DeleteBook;
+        }
+    }
+
+    @JSONType(typeName = "ModifyStock")
+    public static class ModifyStock extends ActionRequest {
+        public int bookId;
+        public int deltaStock;
+
+        @Override
+        public Action action() {
+            return Action.ModifyStock;
+        }
+    }
+
+    @JSONType(typeName = "BorrowBook")
+    public static class BorrowBook extends ActionRequest {
+        public int cardId;
+        public int bookId;
+        public long borrowTime;
+
+        @Override
+        public Action action() {
+            return Action.BorrowBook;
+        }
+
+        public Borrow toBorrow() {
+            Borrow borrow = new Borrow();
+            borrow.setCardId(cardId);
+            borrow.setBookId(bookId);
+            borrow.setBorrowTime(borrowTime);
+            borrow.setReturnTime(0);
+            return borrow;
+        }
+    }
+
+    @JSONType(typeName = "ReturnBook")
+    public static class ReturnBook extends ActionRequest {
+        public int cardId;
+        public int bookId;
+        public long returnTime;
+
+        @Override
+        public Action action() {
+            return Action.ReturnBook;
+        }
+
+        public Borrow toBorrow() {
+            Borrow borrow = new Borrow();
+            borrow.setCardId(cardId);
+            borrow.setBookId(bookId);
+            borrow.setReturnTime(returnTime);
+            return borrow;
+        }
+    }
+}
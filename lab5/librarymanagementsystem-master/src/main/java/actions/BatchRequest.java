@@ -0,0 +1,34 @@
+package actions;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The body of a /batch request, the actions are run in order in one transaction:
+ *      {"failFast": true, "actions": [{"action": "AddBook", ...}, {"action": "ModifyStock", ...}]}
+ * failFast defaults to true, false goes on after a failed action, undoing only that one.
+ * books are imported in bulk by streaming them to /book?action=AddBatch, not through a batch.
+ */
+public class BatchRequest {
+    public boolean failFast = true;
+    public List<ActionRequest> actions;
+
+    /**
+     * @return the request of the body, or null if it is malformed or holds an unknown action
+     */
+    public static BatchRequest read(InputStream body) {
+        try {
+            BatchRequest request = JSON.parseObject(body, StandardCharsets.UTF_8, BatchRequest.class);
+            if (request == null || request.actions == null || request.actions.contains(null)) {
+                return null;
+            }
+            return request;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package actions;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import entities.Book;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the books of an upload one at a time, the body being either a JSON
+ * array of books or one book per line (NDJSON):
+ *      [{"category": "Nature", "title": "...", ...}, {...}]
+ *      {"category": "Nature", "title": "...", ...}\n{...}\n
+ *
+ * Note:
+ *      (1) only the book being read is held, the bytes of one top level
+ *          object are collected and bound to {@link ActionRequest.AddBook},
+ *          so an upload of any size is read in bounded memory.
+ *      (2) between objects, whitespace, '[', ',' and ']' are skipped, which
+ *          is all the two formats differ in. anything else is malformed.
+ *      (3) a book of more than {@link #MAX_OBJECT} bytes is malformed as well.
+ */
+public class BookStream implements Closeable {
+
+    static final int MAX_OBJECT = 64 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+    private byte[] object = new byte[1024];
+    private int count;
+
+    public BookStream(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the next book, or null at the end of the body
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public Book next() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '[' || c == ',' || c == ']');
+        if (c < 0) {
+            return null;
+        }
+        if (c != '{') {
+            throw new IOException("Malformed books at book " + (count + 1));
+        }
+        int length = readObject();
+        try {
+            ActionRequest.AddBook book = JSON.parseObject(object, 0, length, StandardCharsets.UTF_8,
+                    ActionRequest.AddBook.class);
+            if (book == null) {
+                throw new IOException("Malformed books at book " + (count + 1));
+            }
+            count++;
+            return book.toBook();
+        } catch (JSONException e) {
+            throw new IOException("Malformed books at book " + (count + 1), e);
+        }
+    }
+
+    /**
+     * @return the number of books read so far
+     */
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /* collects an object whose '{' has been read, up to its matching '}' */
+    private int readObject() throws IOException {
+        int length = 0;
+        int depth = 0;
+        boolean string = false;
+        boolean escape = false;
+        int c = '{';
+        while (true) {
+            if (length == object.length) {
+                if (length >= MAX_OBJECT) {
+                    throw new IOException("Book " + (count + 1) + " is longer than " + MAX_OBJECT + " bytes");
+                }
+                object = Arrays.copyOf(object, Math.min(length * 2, MAX_OBJECT));
+            }
+            object[length++] = (byte) c;
+            if (string) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    string = false;
+                }
+            } else if (c == '"') {
+                string = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return length;
+                }
+            }
+            c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of books at book " + (count + 1));
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+}
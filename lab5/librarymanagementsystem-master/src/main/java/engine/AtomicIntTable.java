@@ -0,0 +1,51 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An AtomicIntegerArray split into fixed segments, see {@link AtomicRefTable}.
+ */
+public final class AtomicIntTable {
+
+    private static final int SHIFT = 12;
+    private static final int MASK = (1 << SHIFT) - 1;
+
+    private volatile AtomicIntegerArray[] segments = {new AtomicIntegerArray(1 << SHIFT)};
+
+    public int get(int i) {
+        AtomicIntegerArray[] s = segments;
+        int segment = i >>> SHIFT;
+        return segment < s.length ? s[segment].get(i & MASK) : 0;
+    }
+
+    /* element i must have been made room for by ensure(i) */
+    public void set(int i, int value) {
+        segments[i >>> SHIFT].set(i & MASK, value);
+    }
+
+    /* fails for the elements past the end, they can only be set after ensure(i) */
+    public boolean compareAndSet(int i, int expect, int update) {
+        AtomicIntegerArray[] s = segments;
+        int segment = i >>> SHIFT;
+        return segment < s.length && s[segment].compareAndSet(i & MASK, expect, update);
+    }
+
+    /* makes room for element i, must be exclusive with clear() */
+    public void ensure(int i) {
+        AtomicIntegerArray[] s = segments;
+        int segment = i >>> SHIFT;
+        if (segment < s.length) {
+            return;
+        }
+        AtomicIntegerArray[] grown = Arrays.copyOf(s, Math.max(s.length * 2, segment + 1));
+        for (int j = s.length; j < grown.length; j++) {
+            grown[j] = new AtomicIntegerArray(1 << SHIFT);
+        }
+        segments = grown;
+    }
+
+    public void clear() {
+        segments = new AtomicIntegerArray[]{new AtomicIntegerArray(1 << SHIFT)};
+    }
+}
@@ -0,0 +1,72 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An AtomicReferenceArray split into fixed segments, so it can grow while
+ * other threads CAS its elements: growing only copies the segment table,
+ * the segments themselves never move.
+ *
+ * Note that {@link #ensure} and {@link #clear} must be exclusive among
+ * themselves, the other calls are thread-safe and lock-free.
+ */
+public final class AtomicRefTable<T> {
+
+    private static final int SHIFT = 12;
+    private static final int MASK = (1 << SHIFT) - 1;
+
+    private volatile AtomicReferenceArray<T>[] segments = newSegments(1);
+
+    public T get(int i) {
+        AtomicReferenceArray<T>[] s = segments;
+        int segment = i >>> SHIFT;
+        return segment < s.length ? s[segment].get(i & MASK) : null;
+    }
+
+    /* element i must have been made room for by ensure(i) */
+    public void set(int i, T value) {
+        segments[i >>> SHIFT].set(i & MASK, value);
+    }
+
+    /* fails for the elements past the end, they can only be set after ensure(i) */
+    public boolean compareAndSet(int i, T expect, T update) {
+        AtomicReferenceArray<T>[] s = segments;
+        int segment = i >>> SHIFT;
+        return segment < s.length && s[segment].compareAndSet(i & MASK, expect, update);
+    }
+
+    /**
+     * @return the number of elements, always a multiple of the segment size
+     */
+    public int length() {
+        return segments.length << SHIFT;
+    }
+
+    /* makes room for element i */
+    public void ensure(int i) {
+        AtomicReferenceArray<T>[] s = segments;
+        int segment = i >>> SHIFT;
+        if (segment < s.length) {
+            return;
+        }
+        AtomicReferenceArray<T>[] grown = Arrays.copyOf(s, Math.max(s.length * 2, segment + 1));
+        for (int j = s.length; j < grown.length; j++) {
+            grown[j] = new AtomicReferenceArray<>(1 << SHIFT);
+        }
+        segments = grown;
+    }
+
+    public void clear() {
+        segments = newSegments(1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> AtomicReferenceArray<T>[] newSegments(int n) {
+        AtomicReferenceArray<T>[] s = new AtomicReferenceArray[n];
+        for (int j = 0; j < n; j++) {
+            s[j] = new AtomicReferenceArray<>(1 << SHIFT);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,58 @@
+package engine;
+
+import entities.BookRecord;
+import index.BKTree;
+import queries.BookQueryConditions;
+
+import java.util.function.Predicate;
+
+/**
+ * Evaluates {@link BookQueryConditions} on a book in memory.
+ *
+ * Note that strings are compared the same way as the reference
+ * implementation in the tests: category is matched exactly, and
+ * title, press & author are matched by substring, unless the edit
+ * distance mode is on. numeric columns are checked first, so views that
+ * decode strings on access only do it for the rows that get that far.
+ */
+public final class BookFilter implements Predicate<BookRecord> {
+
+    private final BookQueryConditions conditions;
+
+    public BookFilter(BookQueryConditions conditions) {
+        this.conditions = conditions;
+    }
+
+    @Override
+    public boolean test(BookRecord b) {
+        BookQueryConditions c = conditions;
+        if (c.getMinPublishYear() != null && b.getPublishYear() < c.getMinPublishYear()) {
+            return false;
+        }
+        if (c.getMaxPublishYear() != null && b.getPublishYear() > c.getMaxPublishYear()) {
+            return false;
+        }
+        if (c.getMinPriceCents() != null && b.getPriceCents() < c.getMinPriceCents()) {
+            return false;
+        }
+        if (c.getMaxPriceCents() != null && b.getPriceCents() > c.getMaxPriceCents()) {
+            return false;
+        }
+        if (c.getCategory() != null && !b.getCategory().equals(c.getCategory())) {
+            return false;
+        }
+        if (c.getPress() != null && !b.getPress().contains(c.getPress())) {
+            return false;
+        }
+        if (c.getMaxEditDistance() == null) {
+            if (c.getTitle() != null && !b.getTitle().contains(c.getTitle())) {
+                return false;
+            }
+            return c.getAuthor() == null || b.getAuthor().contains(c.getAuthor());
+        }
+        if (c.getTitle() != null && !BKTree.within(b.getTitle(), c.getTitle(), c.getMaxEditDistance())) {
+            return false;
+        }
+        return c.getAuthor() == null || BKTree.within(b.getAuthor(), c.getAuthor(), c.getMaxEditDistance());
+    }
+}
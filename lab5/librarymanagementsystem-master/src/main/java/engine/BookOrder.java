@@ -0,0 +1,77 @@
+package engine;
+
+import entities.Book;
+import entities.BookRecord;
+import queries.BookQueryConditions;
+import queries.SortOrder;
+
+import java.util.Comparator;
+
+/**
+ * The order of queryBook results: sortBy in sortOrder, then book_id ascending.
+ *
+ * Note that numeric columns also have a primitive key, so hot loops can
+ * compare two longs instead of calling comparators on boxed values.
+ * keys are already inverted for descending order, smaller key comes first,
+ * and equal keys are ordered by book_id ascending.
+ */
+public final class BookOrder {
+
+    private final Book.SortColumn column;
+    private final boolean descending;
+    private final Comparator<Book> comparator;
+
+    public BookOrder(Book.SortColumn column, SortOrder order) {
+        this.column = column;
+        this.descending = order == SortOrder.DESC;
+        Comparator<Book> cmp = column.getComparator();
+        if (descending) {
+            cmp = cmp.reversed();
+        }
+        this.comparator = cmp.thenComparingInt(Book::getBookId);
+    }
+
+    public static BookOrder of(BookQueryConditions conditions) {
+        return new BookOrder(conditions.getSortBy(), conditions.getSortOrder());
+    }
+
+    public Comparator<Book> comparator() {
+        return comparator;
+    }
+
+    public boolean isPrimitive() {
+        switch (column) {
+            case BOOK_ID:
+            case PUBLISH_YEAR:
+            case PRICE:
+            case STOCK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the primitive sort key of a book, only valid if isPrimitive()
+     */
+    public long key(BookRecord book) {
+        long key;
+        switch (column) {
+            case BOOK_ID:
+                key = book.getBookId();
+                break;
+            case PUBLISH_YEAR:
+                key = book.getPublishYear();
+                break;
+            case STOCK:
+                key = book.getStock();
+                break;
+            case PRICE:
+                key = book.getPriceCents();
+                break;
+            default:
+                throw new IllegalStateException("No primitive key for " + column);
+        }
+        return descending ? ~key : key;
+    }
+}
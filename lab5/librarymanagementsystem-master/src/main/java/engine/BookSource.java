@@ -0,0 +1,26 @@
+package engine;
+
+import entities.Book;
+
+import java.util.function.Consumer;
+
+/**
+ * Books addressed by slot, so scans can be split into slot ranges.
+ *
+ * Note that slots may be empty, a source only hands out the books
+ * in its occupied slots.
+ */
+public interface BookSource {
+
+    /**
+     * @return the number of slots, occupied or not
+     */
+    int slots();
+
+    /**
+     * Passes the books in slots [from, to) satisfying the filter to out.
+     * the books must not be modified by the receiver.
+     */
+    void collect(int from, int to, BookFilter filter, Consumer<Book> out);
+
+}
@@ -0,0 +1,46 @@
+package engine;
+
+import entities.Book;
+
+/**
+ * Storage of the books of an in-memory library, keyed by book_id.
+ *
+ * Note:
+ *      (1) books are compared by category...author like {@link Book#equals},
+ *          {@link #find} is how duplicates are rejected.
+ *      (2) books returned by a store must not be modified, a store may
+ *          hand out its own objects.
+ *      (3) a store is not thread-safe, updates must be exclusive while
+ *          reads and scans may run concurrently.
+ *      (4) a store keeps the stock a book was stored with, changes of the
+ *          stock are versioned by the library itself.
+ */
+public interface BookStore extends BookSource {
+
+    /**
+     * @return the book with the id, or null if there is none
+     */
+    Book get(int bookId);
+
+    boolean contains(int bookId);
+
+    /**
+     * @return the id of a stored book equal to the given one, or 0 if there is none
+     */
+    int find(Book book);
+
+    /**
+     * Stores a book, replacing the one with the same id if any.
+     * the store takes over the book, the caller must not modify it afterwards.
+     */
+    void put(Book book);
+
+    /**
+     * @return whether there was a book with the id
+     */
+    boolean remove(int bookId);
+
+    int size();
+
+    void clear();
+}
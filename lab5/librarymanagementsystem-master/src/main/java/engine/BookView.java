@@ -0,0 +1,80 @@
+package engine;
+
+import entities.Book;
+import entities.BookRecord;
+import entities.Prices;
+
+/**
+ * A flyweight over one slot of an {@link OffHeapBookStore}, moved from slot
+ * to slot by a scan instead of building a {@link Book} for every row.
+ *
+ * Note that string columns are decoded on every call, a view is meant to be
+ * tested by a filter once and then either skipped or turned into a book.
+ */
+public final class BookView implements BookRecord {
+
+    private final OffHeapBookStore store;
+    private int slot;
+
+    BookView(OffHeapBookStore store) {
+        this.store = store;
+    }
+
+    BookView moveTo(int slot) {
+        this.slot = slot;
+        return this;
+    }
+
+    public Book toBook() {
+        Book book = new Book(getCategory(), getTitle(), getPress(), getPublishYear(),
+                getAuthor(), 0, getStock());
+        book.setBookId(getBookId());
+        book.setPriceCents(getPriceCents());
+        return book;
+    }
+
+    @Override
+    public int getBookId() {
+        return store.getInt(slot, OffHeapBookStore.BOOK_ID);
+    }
+
+    @Override
+    public String getCategory() {
+        return store.strings.get(store.getInt(slot, OffHeapBookStore.CATEGORY));
+    }
+
+    @Override
+    public String getTitle() {
+        return store.strings.get(store.getInt(slot, OffHeapBookStore.TITLE));
+    }
+
+    @Override
+    public String getPress() {
+        return store.strings.get(store.getInt(slot, OffHeapBookStore.PRESS));
+    }
+
+    @Override
+    public int getPublishYear() {
+        return store.getInt(slot, OffHeapBookStore.PUBLISH_YEAR);
+    }
+
+    @Override
+    public String getAuthor() {
+        return store.strings.get(store.getInt(slot, OffHeapBookStore.AUTHOR));
+    }
+
+    @Override
+    public double getPrice() {
+        return Prices.toDouble(getPriceCents());
+    }
+
+    @Override
+    public long getPriceCents() {
+        return store.getLong(slot, OffHeapBookStore.PRICE);
+    }
+
+    @Override
+    public int getStock() {
+        return store.getInt(slot, OffHeapBookStore.STOCK);
+    }
+}
@@ -0,0 +1,188 @@
+package engine;
+
+import entities.Borrow;
+import primitives.LongSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Multi-version borrow records, for reading histories without locks.
+ *
+ * Note:
+ *      (1) a record remembers the versions that created, returned and
+ *          deleted it, a reader only sees what was committed as of its
+ *          snapshot, see {@link VersionClock}.
+ *      (2) the records of a card are a list, newest first. writers CAS
+ *          new records in front of it and the reclaimer unlinks deleted
+ *          records in place, so a reader walking the list never loses its way.
+ *      (3) the records not returned yet are in a lock-free map keyed on
+ *          (card_id, book_id), claiming a key is how a borrow makes sure
+ *          the card does not hold the book already.
+ *      (4) {@link #ensureCard} and {@link #clear} must be exclusive among
+ *          themselves, the rest is thread-safe.
+ */
+public final class BorrowLog {
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /* card_id --> newest borrow record of the card */
+    private final AtomicRefTable<Record> byCard = new AtomicRefTable<>();
+    /* (card_id, book_id) --> the record that has not been returned */
+    private final ConcurrentMap<Long, Record> open = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+    public void ensureCard(int cardId) {
+        byCard.ensure(cardId);
+    }
+
+    /**
+     * Claims (card_id, book_id) for a new borrow record.
+     * @return the record, or null if the card holds the book already
+     */
+    public Record claim(int cardId, int bookId, long borrowTime) {
+        Record record = new Record(cardId, bookId, borrowTime);
+        return open.putIfAbsent(key(cardId, bookId), record) == null ? record : null;
+    }
+
+    /* gives up a claim whose borrow failed */
+    public void release(Record record) {
+        open.remove(key(record.cardId, record.bookId), record);
+    }
+
+    /* adds a claimed record to the history of its card, as of the version */
+    public void borrow(Record record, long version) {
+        record.created = version;
+        while (true) {
+            Record head = byCard.get(record.cardId);
+            record.next = head;
+            if (byCard.compareAndSet(record.cardId, head, record)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the record that has not been returned, or null
+     */
+    public Record open(int cardId, int bookId) {
+        return open.get(key(cardId, bookId));
+    }
+
+    /**
+     * Takes a record out of the open ones, for returning it.
+     * @return whether this caller got it
+     */
+    public boolean close(Record record) {
+        return open.remove(key(record.cardId, record.bookId), record);
+    }
+
+    /* stamps the return of a closed record, as of the version */
+    public void giveBack(Record record, long returnTime, long version) {
+        record.returnTime = returnTime;
+        record.returned = version;
+    }
+
+    /* on delete cascade of a book, it must have no open records */
+    public void deleteBook(int bookId, long version) {
+        for (int i = 0, n = byCard.length(); i < n; i++) {
+            for (Record r = byCard.get(i); r != null; r = r.next) {
+                if (r.bookId == bookId && r.deleted == NEVER) {
+                    r.deleted = version;
+                }
+            }
+        }
+    }
+
+    /* on delete cascade of a card, it must have no open records */
+    public void deleteCard(int cardId, long version) {
+        for (Record r = byCard.get(cardId); r != null; r = r.next) {
+            if (r.deleted == NEVER) {
+                r.deleted = version;
+            }
+        }
+    }
+
+    /**
+     * @return the borrow records of a card as of the snapshot version, newest first
+     */
+    public List<Borrow> history(int cardId, long snapshot) {
+        List<Borrow> list = new ArrayList<>();
+        for (Record r = byCard.get(cardId); r != null; r = r.next) {
+            if (r.created > snapshot || r.deleted <= snapshot) {
+                continue;
+            }
+            Borrow borrow = new Borrow(r.bookId, r.cardId);
+            borrow.setBorrowTime(r.borrowTime);
+            borrow.setReturnTime(r.returned <= snapshot ? r.returnTime : 0);
+            list.add(borrow);
+        }
+        return list;
+    }
+
+    /**
+     * Unlinks the records whose deletion is older than every snapshot,
+     * skipped if another reclaim is running.
+     */
+    public void reclaim(long oldest) {
+        if (!reclaiming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0, n = byCard.length(); i < n; i++) {
+                Record head = byCard.get(i);
+                // the head may only move by CAS, new records are put in front of it
+                while (head != null && head.deleted <= oldest && byCard.compareAndSet(i, head, head.next)) {
+                    head = head.next;
+                }
+                for (Record prev = byCard.get(i), r = prev == null ? null : prev.next; r != null; r = r.next) {
+                    if (r.deleted <= oldest) {
+                        prev.next = r.next;
+                    } else {
+                        prev = r;
+                    }
+                }
+            }
+        } finally {
+            reclaiming.set(false);
+        }
+    }
+
+    public void clear() {
+        byCard.clear();
+        open.clear();
+    }
+
+    private static long key(int cardId, int bookId) {
+        return LongSet.pair(cardId, bookId);
+    }
+
+    public static final class Record {
+        private final int cardId;
+        private final int bookId;
+        private final long borrowTime;
+        private volatile long created = NEVER;
+        private volatile long returnTime;
+        private volatile long returned = NEVER;
+        private volatile long deleted = NEVER;
+        private volatile Record next;
+
+        private Record(int cardId, int bookId, long borrowTime) {
+            this.cardId = cardId;
+            this.bookId = bookId;
+            this.borrowTime = borrowTime;
+        }
+
+        public long getBorrowTime() {
+            return borrowTime;
+        }
+
+        /* whether the borrow of a claimed record has gone through */
+        public boolean isBorrowed() {
+            return created != NEVER;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package engine;
+
+import entities.Book;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps books as objects in an array indexed by book_id, since ids are
+ * handed out in increasing order.
+ */
+public final class HeapBookStore implements BookStore {
+
+    private Book[] books = new Book[1024];
+    /* book --> book_id, compared by category...author */
+    private final Map<Book, Integer> ids = new HashMap<>();
+
+    @Override
+    public Book get(int bookId) {
+        return bookId > 0 && bookId < books.length ? books[bookId] : null;
+    }
+
+    @Override
+    public boolean contains(int bookId) {
+        return get(bookId) != null;
+    }
+
+    @Override
+    public int find(Book book) {
+        return ids.getOrDefault(book, 0);
+    }
+
+    @Override
+    public void put(Book book) {
+        int bookId = book.getBookId();
+        if (bookId >= books.length) {
+            books = Arrays.copyOf(books, Math.max(books.length * 2, bookId + 1));
+        }
+        if (books[bookId] != null) {
+            ids.remove(books[bookId]);
+        }
+        books[bookId] = book;
+        ids.put(book, bookId);
+    }
+
+    @Override
+    public boolean remove(int bookId) {
+        Book book = get(bookId);
+        if (book == null) {
+            return false;
+        }
+        books[bookId] = null;
+        ids.remove(book);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    public void clear() {
+        books = new Book[1024];
+        ids.clear();
+    }
+
+    @Override
+    public int slots() {
+        return books.length;
+    }
+
+    @Override
+    public void collect(int from, int to, BookFilter filter, Consumer<Book> out) {
+        Book[] snapshot = books;
+        for (int i = from; i < to && i < snapshot.length; i++) {
+            Book book = snapshot[i];
+            if (book != null && filter.test(book)) {
+                out.accept(book);
+            }
+        }
+    }
+}
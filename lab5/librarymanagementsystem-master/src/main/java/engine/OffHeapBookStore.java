@@ -0,0 +1,234 @@
+package engine;
+
+import entities.Book;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps books outside of the java heap, in fixed-width slots of direct buffers.
+ *
+ * Note:
+ *      (1) a slot holds book_id, publish_year, stock, price in cents and
+ *          the ids of category, title, press & author in an
+ *          {@link OffHeapStrings} dictionary. a free slot has book_id 0 and is reused by the next
+ *          stored book.
+ *      (2) book_id --> slot and the lookup of equal books are open tables
+ *          in direct buffers too, so the heap only holds a few buffer
+ *          references however many books are stored.
+ *      (3) scans read the slots through a {@link BookView} and only build
+ *          {@link Book} objects for the matches.
+ */
+public final class OffHeapBookStore implements BookStore {
+
+    static final int BOOK_ID = 0;
+    static final int PUBLISH_YEAR = 4;
+    static final int STOCK = 8;
+    static final int CATEGORY = 12;
+    static final int TITLE = 16;
+    static final int PRESS = 20;
+    static final int AUTHOR = 24;
+    static final int PRICE = 32;
+    private static final int SLOT = 40;
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    final OffHeapStrings strings = new OffHeapStrings();
+    /* book_id --> slot + 1, 0 if the book does not exist */
+    private final OffHeapInts slotOf = new OffHeapInts(1024);
+    /* open addressing on category...author, slot + 1 or 0 for an empty bucket */
+    private final OffHeapInts table = new OffHeapInts(2048);
+    private int mask = 2047;
+    private int slots;
+    private int size;
+    /* first free slot, free slots are chained through their category field */
+    private int free = -1;
+
+    @Override
+    public Book get(int bookId) {
+        int slot = slotOf.get(bookId) - 1;
+        return slot < 0 ? null : new BookView(this).moveTo(slot).toBook();
+    }
+
+    @Override
+    public boolean contains(int bookId) {
+        return slotOf.get(bookId) != 0;
+    }
+
+    @Override
+    public int find(Book book) {
+        int category = strings.find(book.getCategory());
+        int title = strings.find(book.getTitle());
+        int press = strings.find(book.getPress());
+        int author = strings.find(book.getAuthor());
+        if (category < 0 || title < 0 || press < 0 || author < 0) { // some value was never stored
+            return 0;
+        }
+        int year = book.getPublishYear();
+        int i = hash(category, title, press, year, author) & mask;
+        for (int e; (e = table.get(i)) != 0; i = (i + 1) & mask) {
+            int slot = e - 1;
+            if (getInt(slot, CATEGORY) == category && getInt(slot, TITLE) == title
+                    && getInt(slot, PRESS) == press && getInt(slot, PUBLISH_YEAR) == year
+                    && getInt(slot, AUTHOR) == author) {
+                return getInt(slot, BOOK_ID);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void put(Book book) {
+        int slot = slotOf.get(book.getBookId()) - 1;
+        if (slot >= 0) { // replace in place
+            unlink(slot);
+        } else {
+            slot = allocate();
+            slotOf.set(book.getBookId(), slot + 1);
+            size++;
+        }
+        ByteBuffer chunk = chunk(slot);
+        int base = base(slot);
+        chunk.putInt(base + BOOK_ID, book.getBookId());
+        chunk.putInt(base + PUBLISH_YEAR, book.getPublishYear());
+        chunk.putInt(base + STOCK, book.getStock());
+        chunk.putInt(base + CATEGORY, strings.intern(book.getCategory()));
+        chunk.putInt(base + TITLE, strings.intern(book.getTitle()));
+        chunk.putInt(base + PRESS, strings.intern(book.getPress()));
+        chunk.putInt(base + AUTHOR, strings.intern(book.getAuthor()));
+        chunk.putLong(base + PRICE, book.getPriceCents());
+        link(slot);
+        if (size * 2 > mask + 1) {
+            rehash((mask + 1) * 2);
+        }
+    }
+
+    @Override
+    public boolean remove(int bookId) {
+        int slot = slotOf.get(bookId) - 1;
+        if (slot < 0) {
+            return false;
+        }
+        unlink(slot);
+        slotOf.set(bookId, 0);
+        chunk(slot).putInt(base(slot) + BOOK_ID, 0);
+        chunk(slot).putInt(base(slot) + CATEGORY, free);
+        free = slot;
+        size--;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        chunks.clear();
+        strings.clear();
+        slotOf.reset(1024);
+        table.reset(2048);
+        mask = 2047;
+        slots = 0;
+        size = 0;
+        free = -1;
+    }
+
+    @Override
+    public int slots() {
+        return slots;
+    }
+
+    @Override
+    public void collect(int from, int to, BookFilter filter, Consumer<Book> out) {
+        BookView view = new BookView(this);
+        for (int slot = from; slot < to; slot++) {
+            if (getInt(slot, BOOK_ID) != 0 && filter.test(view.moveTo(slot))) {
+                out.accept(view.toBook());
+            }
+        }
+    }
+
+    int getInt(int slot, int field) {
+        return chunk(slot).getInt(base(slot) + field);
+    }
+
+    long getLong(int slot, int field) {
+        return chunk(slot).getLong(base(slot) + field);
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks.get(slot >>> CHUNK_SHIFT);
+    }
+
+    private static int base(int slot) {
+        return (slot & (CHUNK_SLOTS - 1)) * SLOT;
+    }
+
+    private int allocate() {
+        if (free >= 0) {
+            int slot = free;
+            free = getInt(slot, CATEGORY);
+            return slot;
+        }
+        if (slots == chunks.size() * CHUNK_SLOTS) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT).order(ByteOrder.nativeOrder()));
+        }
+        return slots++;
+    }
+
+    private int hashOf(int slot) {
+        return hash(getInt(slot, CATEGORY), getInt(slot, TITLE), getInt(slot, PRESS),
+                getInt(slot, PUBLISH_YEAR), getInt(slot, AUTHOR));
+    }
+
+    private void link(int slot) {
+        int i = hashOf(slot) & mask;
+        while (table.get(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        table.set(i, slot + 1);
+    }
+
+    /* removes a slot from the table, shifting back the entries probed past it */
+    private void unlink(int slot) {
+        int i = hashOf(slot) & mask;
+        while (table.get(i) != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        for (int j = (i + 1) & mask, e; (e = table.get(j)) != 0; j = (j + 1) & mask) {
+            int home = hashOf(e - 1) & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                table.set(i, e);
+                i = j;
+            }
+        }
+        table.set(i, 0);
+    }
+
+    private void rehash(int capacity) {
+        table.reset(capacity);
+        mask = capacity - 1;
+        for (int slot = 0; slot < slots; slot++) {
+            if (getInt(slot, BOOK_ID) != 0) {
+                link(slot);
+            }
+        }
+    }
+
+    private static int hash(int category, int title, int press, int year, int author) {
+        int h = category;
+        h = h * 31 + title;
+        h = h * 31 + press;
+        h = h * 31 + year;
+        h = h * 31 + author;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,48 @@
+package engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* a growable int array in a direct buffer, unset elements are 0 */
+final class OffHeapInts {
+
+    private ByteBuffer buffer;
+
+    OffHeapInts(int capacity) {
+        buffer = allocate(capacity);
+    }
+
+    int capacity() {
+        return buffer.capacity() >>> 2;
+    }
+
+    int get(int i) {
+        return i >= 0 && i < capacity() ? buffer.getInt(i << 2) : 0;
+    }
+
+    void set(int i, int value) {
+        if (i >= capacity()) {
+            grow(i + 1);
+        }
+        buffer.putInt(i << 2, value);
+    }
+
+    /* drops the content and resizes, all elements become 0 */
+    void reset(int capacity) {
+        buffer = allocate(capacity);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(capacity() * 2, minCapacity);
+        ByteBuffer grown = allocate(capacity);
+        ByteBuffer old = buffer.duplicate();
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        buffer = grown;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity << 2).order(ByteOrder.nativeOrder());
+    }
+}
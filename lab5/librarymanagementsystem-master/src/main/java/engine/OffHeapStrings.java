@@ -0,0 +1,131 @@
+package engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dictionary of distinct strings kept in direct buffers, referenced by int ids.
+ *
+ * Note:
+ *      (1) a string is stored once as its length and UTF-8 bytes, equal
+ *          strings get the same id, so ids can be compared instead of strings.
+ *      (2) strings are never freed one by one, values that are no longer
+ *          used stay until the dictionary is cleared.
+ */
+final class OffHeapStrings {
+
+    private static final int CHUNK = 1 << 20;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer tail;
+    /* id --> chunk index & offset of the string, and its hash */
+    private final OffHeapInts chunkOf = new OffHeapInts(1024);
+    private final OffHeapInts offsetOf = new OffHeapInts(1024);
+    private final OffHeapInts hashOf = new OffHeapInts(1024);
+    /* open addressing on the hash, id + 1 or 0 for an empty bucket */
+    private final OffHeapInts table = new OffHeapInts(2048);
+    private int mask = 2047;
+    private int size;
+
+    /**
+     * @return the id of the string, adding it if it is new
+     */
+    int intern(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int hash = s.hashCode();
+        int i = mix(hash) & mask;
+        for (int e; (e = table.get(i)) != 0; i = (i + 1) & mask) {
+            if (hashOf.get(e - 1) == hash && matches(e - 1, bytes)) {
+                return e - 1;
+            }
+        }
+        int id = size++;
+        append(id, bytes);
+        hashOf.set(id, hash);
+        table.set(i, id + 1);
+        if (size * 2 > mask + 1) {
+            rehash((mask + 1) * 2);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the string, or -1 if it is not in the dictionary
+     */
+    int find(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int hash = s.hashCode();
+        for (int i = mix(hash) & mask, e; (e = table.get(i)) != 0; i = (i + 1) & mask) {
+            if (hashOf.get(e - 1) == hash && matches(e - 1, bytes)) {
+                return e - 1;
+            }
+        }
+        return -1;
+    }
+
+    String get(int id) {
+        ByteBuffer chunk = chunks.get(chunkOf.get(id));
+        int offset = offsetOf.get(id);
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void clear() {
+        chunks.clear();
+        tail = null;
+        chunkOf.reset(1024);
+        offsetOf.reset(1024);
+        hashOf.reset(1024);
+        table.reset(2048);
+        mask = 2047;
+        size = 0;
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+        ByteBuffer chunk = chunks.get(chunkOf.get(id));
+        int offset = offsetOf.get(id);
+        if (chunk.getInt(offset) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(offset + 4 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(int id, byte[] bytes) {
+        int length = 4 + bytes.length;
+        if (tail == null || tail.remaining() < length) {
+            tail = ByteBuffer.allocateDirect(Math.max(CHUNK, length));
+            chunks.add(tail);
+        }
+        chunkOf.set(id, chunks.size() - 1);
+        offsetOf.set(id, tail.position());
+        tail.putInt(bytes.length);
+        tail.put(bytes);
+    }
+
+    private void rehash(int capacity) {
+        table.reset(capacity);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int i = mix(hashOf.get(id)) & mask;
+            while (table.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            table.set(i, id + 1);
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,182 @@
+package engine;
+
+import entities.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Filters and sorts the books of a {@link BookSource} on a {@link ForkJoinPool}.
+ *
+ * Note:
+ *      (1) the slots are split into ranges, every range is filtered and
+ *          sorted into a run by its own task, then the runs are k-way
+ *          merged, so the order is exactly the one of {@link BookOrder}.
+ *      (2) sources smaller than the threshold are scanned on the calling
+ *          thread, forking does not pay off for them. the default threshold
+ *          is read from the system property "library.parallel.threshold".
+ */
+public final class ParallelBookScan {
+
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("library.parallel.threshold", 16384);
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public ParallelBookScan() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public ParallelBookScan(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the books satisfying the filter, in order
+     */
+    public List<Book> scan(BookSource books, BookFilter filter, BookOrder order) {
+        int n = books.slots();
+        if (n < threshold) {
+            return new Run(books, 0, n, filter, order).books;
+        }
+        // a few runs per worker, so a slow range does not hold the others back
+        int parts = Math.max(2, Math.min(pool.getParallelism() * 4, n / Math.max(1, threshold / 4)));
+        Run[] runs = new Run[parts];
+        pool.invoke(new Split(books, 0, parts, filter, order, runs));
+        return merge(runs, order);
+    }
+
+    private static List<Book> merge(Run[] runs, BookOrder order) {
+        int total = 0;
+        for (Run run : runs) {
+            total += run.books.size();
+        }
+        List<Book> result = new ArrayList<>(total);
+        // min-heap over the run indices, by the head of each run
+        int[] heap = new int[runs.length];
+        int[] pos = new int[runs.length];
+        int size = 0;
+        for (int r = 0; r < runs.length; r++) {
+            if (!runs[r].books.isEmpty()) {
+                heap[size] = r;
+                siftUp(heap, size++, runs, pos, order);
+            }
+        }
+        while (size > 0) {
+            int r = heap[0];
+            result.add(runs[r].books.get(pos[r]++));
+            if (pos[r] == runs[r].books.size()) {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, size, runs, pos, order);
+        }
+        return result;
+    }
+
+    private static boolean less(int r1, int r2, Run[] runs, int[] pos, BookOrder order) {
+        Run a = runs[r1];
+        Run b = runs[r2];
+        int i = pos[r1];
+        int j = pos[r2];
+        if (a.keys != null) {
+            long k1 = a.keys[i];
+            long k2 = b.keys[j];
+            return k1 < k2 || (k1 == k2 && a.books.get(i).getBookId() < b.books.get(j).getBookId());
+        }
+        return order.comparator().compare(a.books.get(i), b.books.get(j)) < 0;
+    }
+
+    private static void siftUp(int[] heap, int i, Run[] runs, int[] pos, BookOrder order) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(heap[i], heap[parent], runs, pos, order)) {
+                return;
+            }
+            int tmp = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = tmp;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, Run[] runs, int[] pos, BookOrder order) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if (l < size && less(heap[l], heap[smallest], runs, pos, order)) {
+                smallest = l;
+            }
+            if (r < size && less(heap[r], heap[smallest], runs, pos, order)) {
+                smallest = r;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int tmp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
+    /* the sorted matches of books[from, to), with their primitive keys if any */
+    private static final class Run {
+        final List<Book> books = new ArrayList<>();
+        final long[] keys;
+
+        Run(BookSource source, int from, int to, BookFilter filter, BookOrder order) {
+            source.collect(from, to, filter, books::add);
+            books.sort(order.comparator());
+            if (order.isPrimitive()) {
+                keys = new long[books.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = order.key(books.get(i));
+                }
+            } else {
+                keys = null;
+            }
+        }
+    }
+
+    /* builds runs[from, to) by halving until a single range is left */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BookSource books;
+        private final int from;
+        private final int to;
+        private final BookFilter filter;
+        private final BookOrder order;
+        private final Run[] runs;
+
+        Split(BookSource books, int from, int to, BookFilter filter, BookOrder order, Run[] runs) {
+            this.books = books;
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.order = order;
+            this.runs = runs;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                long n = books.slots();
+                runs[from] = new Run(books, (int) (n * from / runs.length), (int) (n * to / runs.length), filter, order);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Split(books, from, mid, filter, order, runs),
+                    new Split(books, mid, to, filter, order, runs));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package engine;
+
+/**
+ * Version chains of the stock of every book, indexed by book_id.
+ *
+ * Note:
+ *      (1) the head of a chain is the current stock and the number of
+ *          copies on loan. every change is a CAS of the head to a new
+ *          version, so borrow & return decide on the stock without any
+ *          lock, and the chain stays ordered by version.
+ *      (2) readers walk from the head to the newest version not newer
+ *          than their snapshot, without any lock.
+ *      (3) {@link #create}, {@link #ensure} and {@link #clear} must be
+ *          exclusive among themselves, the rest is thread-safe.
+ */
+public final class StockVersions {
+
+    public static final int REMOVED = 0;
+    public static final int NO_BOOK = 1;
+    public static final int ON_LOAN = 2;
+
+    private final VersionClock clock;
+    private final AtomicRefTable<Version> heads = new AtomicRefTable<>();
+
+    public StockVersions(VersionClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return the stock of the book as of the snapshot version,
+     *         or -1 if the book did not exist yet
+     */
+    public int read(int bookId, long snapshot) {
+        Version v = heads.get(bookId);
+        while (v != null && v.version > snapshot) {
+            v = v.older;
+        }
+        return v == null ? -1 : v.stock;
+    }
+
+    public boolean exists(int bookId) {
+        return heads.get(bookId) != null;
+    }
+
+    /* the first version of a new book, stamped with a version of the caller */
+    public void create(int bookId, int stock, long version) {
+        heads.ensure(bookId);
+        heads.set(bookId, new Version(version, stock, 0, null));
+    }
+
+    /**
+     * Takes a copy out of the stock and puts it on loan.
+     * @return the new version, to be committed by the caller,
+     *         or null if the book does not exist or has no stock
+     */
+    public Version borrow(int bookId) {
+        return change(bookId, -1, 1);
+    }
+
+    /**
+     * Puts a copy on loan back to the stock.
+     * @return the new version, to be committed by the caller
+     */
+    public Version giveBack(int bookId) {
+        return change(bookId, 1, -1);
+    }
+
+    /**
+     * @return the new version, to be committed by the caller,
+     *         or null if the book does not exist or the stock would be negative
+     */
+    public Version add(int bookId, int delta) {
+        return change(bookId, delta, 0);
+    }
+
+    /**
+     * Drops the chain of a book if none of its copies is on loan.
+     * @return REMOVED, NO_BOOK or ON_LOAN
+     */
+    public int remove(int bookId) {
+        while (true) {
+            Version head = heads.get(bookId);
+            if (head == null) {
+                return NO_BOOK;
+            }
+            if (head.onLoan > 0) {
+                return ON_LOAN;
+            }
+            if (heads.compareAndSet(bookId, head, null)) {
+                return REMOVED;
+            }
+        }
+    }
+
+    /**
+     * Cuts every chain after the newest version not newer than oldest.
+     */
+    public void reclaim(long oldest) {
+        for (int i = 0, n = heads.length(); i < n; i++) {
+            Version v = heads.get(i);
+            while (v != null && v.version > oldest) {
+                v = v.older;
+            }
+            if (v != null) {
+                v.older = null;
+            }
+        }
+    }
+
+    public void clear() {
+        heads.clear();
+    }
+
+    private Version change(int bookId, int deltaStock, int deltaOnLoan) {
+        while (true) {
+            Version head = heads.get(bookId);
+            if (head == null || head.stock + deltaStock < 0) {
+                return null;
+            }
+            // take the version after reading the head, so it is newer than the head
+            long version = clock.begin();
+            Version v = new Version(version, head.stock + deltaStock, head.onLoan + deltaOnLoan, head);
+            if (heads.compareAndSet(bookId, head, v)) {
+                return v;
+            }
+            clock.commit(version); // lost the race, give the version back empty
+        }
+    }
+
+    public static final class Version {
+        private final long version;
+        private final int stock;
+        private final int onLoan;
+        private volatile Version older;
+
+        private Version(long version, int stock, int onLoan, Version older) {
+            this.version = version;
+            this.stock = stock;
+            this.onLoan = onLoan;
+            this.older = older;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public int stock() {
+            return stock;
+        }
+    }
+}
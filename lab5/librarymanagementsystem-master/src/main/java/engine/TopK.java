@@ -0,0 +1,151 @@
+package engine;
+
+import entities.Book;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the first k matching books of an order with a bounded heap,
+ * in O(n log k) instead of sorting all n matches.
+ *
+ * Note that for numeric sort columns the heap holds primitive keys
+ * ({@link BookOrder#key}) and book ids in parallel arrays, so the
+ * comparisons do not go through comparators at all.
+ */
+public final class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * @return the first k books satisfying the filter, in order
+     */
+    public static List<Book> select(BookSource books, BookFilter filter, BookOrder order, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        return order.isPrimitive() ? selectByKey(books, filter, order, k) : selectByComparator(books, filter, order, k);
+    }
+
+    private static List<Book> selectByComparator(BookSource books, BookFilter filter, BookOrder order, int k) {
+        Comparator<Book> cmp = order.comparator();
+        // max-heap, the head is the worst of the k books kept so far
+        PriorityQueue<Book> heap = new PriorityQueue<>(Math.min(k, 1024), cmp.reversed());
+        books.collect(0, books.slots(), filter, book -> {
+            if (heap.size() < k) {
+                heap.add(book);
+            } else if (cmp.compare(book, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(book);
+            }
+        });
+        List<Book> result = new ArrayList<>(heap);
+        result.sort(cmp);
+        return result;
+    }
+
+    private static List<Book> selectByKey(BookSource books, BookFilter filter, BookOrder order, int k) {
+        Heap heap = new Heap(Math.min(k, 1024), k);
+        books.collect(0, books.slots(), filter, book -> heap.offer(order.key(book), book));
+        return heap.drain();
+    }
+
+    /* max-heap on (key, book_id) keeping the k smallest pairs */
+    private static final class Heap {
+        private final int k;
+        private long[] keys;
+        private int[] ids;
+        private Book[] books;
+        private int size;
+
+        Heap(int capacity, int k) {
+            this.k = k;
+            this.keys = new long[capacity];
+            this.ids = new int[capacity];
+            this.books = new Book[capacity];
+        }
+
+        void offer(long key, Book book) {
+            int id = book.getBookId();
+            if (size < k) {
+                if (size == keys.length) {
+                    int capacity = (int) Math.min((long) size * 2, k);
+                    keys = Arrays.copyOf(keys, capacity);
+                    ids = Arrays.copyOf(ids, capacity);
+                    books = Arrays.copyOf(books, capacity);
+                }
+                int i = size++;
+                set(i, key, id, book);
+                siftUp(i);
+            } else if (less(key, id, keys[0], ids[0])) {
+                set(0, key, id, book);
+                siftDown(0);
+            }
+        }
+
+        /* empties the heap, smallest first */
+        List<Book> drain() {
+            Book[] out = new Book[size];
+            while (size > 0) {
+                out[size - 1] = books[0];
+                size--;
+                set(0, keys[size], ids[size], books[size]);
+                books[size] = null;
+                siftDown(0);
+            }
+            return new ArrayList<>(Arrays.asList(out));
+        }
+
+        private static boolean less(long k1, int id1, long k2, int id2) {
+            return k1 < k2 || (k1 == k2 && id1 < id2);
+        }
+
+        private void set(int i, long key, int id, Book book) {
+            keys[i] = key;
+            ids[i] = id;
+            books[i] = book;
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            int id = ids[i];
+            Book book = books[i];
+            set(i, keys[j], ids[j], books[j]);
+            set(j, key, id, book);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(keys[parent], ids[parent], keys[i], ids[i])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int l = 2 * i + 1;
+                int r = l + 1;
+                if (l < size && less(keys[largest], ids[largest], keys[l], ids[l])) {
+                    largest = l;
+                }
+                if (r < size && less(keys[largest], ids[largest], keys[r], ids[r])) {
+                    largest = r;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package engine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Commit versions of a multi-version store, and the snapshots pinned by readers.
+ *
+ * Note:
+ *      (1) a writer takes a version with {@link #begin()}, stamps all of its
+ *          changes with it and then {@link #commit}s it. writers run
+ *          concurrently and may commit out of order, readers only pin the
+ *          stable version, below which every version has been committed, so
+ *          they see all of a commit or none of it.
+ *      (2) the stable version is advanced by whichever writer completes the
+ *          gap, nobody waits for a slow writer, except when more than
+ *          {@link #WINDOW} versions are in flight at once.
+ *      (3) versions older than {@link #oldest()} are not visible to any
+ *          reader anymore, except the newest of them, and can be reclaimed.
+ */
+public final class VersionClock {
+
+    public static final int WINDOW = 1 << 16;
+
+    private final AtomicLong last = new AtomicLong();
+    private final AtomicLong stable = new AtomicLong();
+    /* version v is committed iff committed[v % WINDOW] == v */
+    private final AtomicLongArray committed = new AtomicLongArray(WINDOW);
+    private final Queue<Snapshot> active = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return the snapshot of the stable version, close it when done
+     */
+    public Snapshot pin() {
+        Snapshot snapshot = new Snapshot(stable.get());
+        active.add(snapshot);
+        // re-read after registering, a reclaimer that missed this snapshot
+        // has read the clock before, so it kept everything from here on
+        snapshot.version = stable.get();
+        return snapshot;
+    }
+
+    /**
+     * @return a new version to stamp changes with, it must be committed even if unused
+     */
+    public long begin() {
+        long version = last.incrementAndGet();
+        while (version - stable.get() > WINDOW) { // its slot is still taken, see note (2)
+            Thread.yield();
+        }
+        return version;
+    }
+
+    public void commit(long version) {
+        committed.set((int) (version & (WINDOW - 1)), version);
+        for (long s = stable.get(); committed.get((int) ((s + 1) & (WINDOW - 1))) == s + 1; s = stable.get()) {
+            stable.compareAndSet(s, s + 1);
+        }
+    }
+
+    /**
+     * @return the oldest version some reader may still see
+     */
+    public long oldest() {
+        long oldest = stable.get();
+        for (Snapshot snapshot : active) {
+            oldest = Math.min(oldest, snapshot.version);
+        }
+        return oldest;
+    }
+
+    public final class Snapshot implements AutoCloseable {
+        private volatile long version;
+
+        private Snapshot(long version) {
+            this.version = version;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public void close() {
+            active.remove(this);
+        }
+    }
+}
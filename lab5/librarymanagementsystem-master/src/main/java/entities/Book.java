@@ -1,17 +1,19 @@
 package entities;
 
+import com.alibaba.fastjson2.annotation.JSONField;
+
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.Random;
 
-public final class Book {
+public final class Book implements BookRecord {
     private int bookId;
     private String category;
     private String title;
     private String press;
     private int publishYear;
     private String author;
-    private double price;
+    private long price; // in cents, see Prices
     private int stock;
 
     public enum SortColumn {
@@ -21,7 +23,7 @@ public final class Book {
         PRESS("press", Comparator.comparing(Book::getPress)),
         PUBLISH_YEAR("publish_year", Comparator.comparingInt(Book::getPublishYear)),
         AUTHOR("author", Comparator.comparing(Book::getAuthor)),
-        PRICE("price", Comparator.comparingDouble(Book::getPrice)),
+        PRICE("price", Comparator.comparingLong(Book::getPriceCents)),
         STOCK("stock", Comparator.comparingInt(Book::getStock));
 
         private final String value;
@@ -55,14 +57,15 @@ public final class Book {
         this.press = press;
         this.publishYear = publishYear;
         this.author = author;
-        this.price = price;
+        this.price = Prices.toCents(price);
         this.stock = stock;
     }
 
     @Override
     public Book clone() {
-        Book b = new Book(category, title, press, publishYear, author, price, stock);
+        Book b = new Book(category, title, press, publishYear, author, 0, stock);
         b.bookId = bookId;
+        b.price = price;
         return b;
     }
 
@@ -74,7 +77,7 @@ public final class Book {
                 ", press='" + press + '\'' +
                 ", publishYear=" + publishYear +
                 ", author='" + author + '\'' +
-                ", price=" + String.format("%.2f", price) +
+                ", price=" + Prices.format(price) +
                 ", stock=" + stock +
                 '}';
     }
@@ -146,10 +149,20 @@ public final class Book {
     }
 
     public double getPrice() {
-        return price;
+        return Prices.toDouble(price);
     }
 
     public void setPrice(double price) {
+        this.price = Prices.toCents(price);
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public long getPriceCents() {
+        return price;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public void setPriceCents(long price) {
         this.price = price;
     }
 
@@ -0,0 +1,26 @@
+package entities;
+
+/**
+ * Read-only access to the columns of a book, implemented by {@link Book}
+ * and by views over books that are not stored as objects.
+ */
+public interface BookRecord {
+
+    int getBookId();
+
+    String getCategory();
+
+    String getTitle();
+
+    String getPress();
+
+    int getPublishYear();
+
+    String getAuthor();
+
+    double getPrice();
+
+    long getPriceCents();
+
+    int getStock();
+}
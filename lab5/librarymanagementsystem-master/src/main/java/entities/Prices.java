@@ -0,0 +1,62 @@
+package entities;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversions of prices, which are carried as long cents to match
+ * the decimal(7, 2) column of table book exactly.
+ *
+ * Note:
+ *      (1) doubles only remain at the edges, for callers that still pass
+ *          them, and are rounded half up to the nearest cent on the way in.
+ *          cents / 100.0 is the double closest to the decimal, so it prints
+ *          back as the same two-digit decimal.
+ *      (2) JDBC binds and reads the column as a BigDecimal of scale 2,
+ *          whose unscaled value is the price in cents.
+ */
+public final class Prices {
+
+    private Prices() {
+    }
+
+    public static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    public static long toCents(BigDecimal price) {
+        return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    public static BigDecimal toDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * @return the price in cents of a decimal string, like "198.46"
+     */
+    public static long parse(String price) {
+        return toCents(new BigDecimal(price.trim()));
+    }
+
+    /**
+     * @return the price as a decimal string with two digits, like "198.46"
+     */
+    public static String format(long cents) {
+        StringBuilder sb = new StringBuilder(12);
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction).toString();
+    }
+}
@@ -0,0 +1,65 @@
+package http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A response body that keeps its compressed forms once they are made, so a
+ * body held by a cache is compressed at most once per coding and then served
+ * as is.
+ */
+public final class Body {
+
+    private final byte[] bytes;
+    private final String contentType;
+    private volatile byte[] gzip;
+    private volatile byte[] deflate;
+
+    public Body(byte[] bytes, String contentType) {
+        this.bytes = bytes;
+        this.contentType = contentType;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the body in the coding, compressed on the first call
+     */
+    public byte[] encoded(Encoding encoding) {
+        switch (encoding) {
+            case GZIP:
+                if (gzip == null) {
+                    gzip = compress(bytes, 0, bytes.length, encoding);
+                }
+                return gzip;
+            case DEFLATE:
+                if (deflate == null) {
+                    deflate = compress(bytes, 0, bytes.length, encoding);
+                }
+                return deflate;
+            default:
+                return bytes;
+        }
+    }
+
+    static byte[] compress(byte[] bytes, int offset, int length, Encoding encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+        compress(bytes, offset, length, encoding, out);
+        return out.toByteArray();
+    }
+
+    static void compress(byte[] bytes, int offset, int length, Encoding encoding, ByteArrayOutputStream out) {
+        try (CompressingOutputStream zip = CompressingOutputStream.open(out, encoding)) {
+            zip.write(bytes, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a ByteArrayOutputStream
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package http;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuses the heap buffers the NIO front end reads requests into and queues
+ * responses in. a connection only holds one while it has unparsed bytes or
+ * a response in flight, so idle keep-alive connections cost no buffer.
+ * buffers of another size, or beyond the pooled count, are left to the GC.
+ */
+final class BufferPool {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int MAX_POOLED = Integer.getInteger("library.http.pooledBuffers", 1024);
+    private static final Queue<ByteBuffer> FREE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    /**
+     * @return a cleared buffer of {@link #BUFFER_SIZE} bytes, backed by an array
+     */
+    static ByteBuffer take() {
+        ByteBuffer buffer = FREE.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * returns a buffer taken before, it must not be used afterwards.
+     */
+    static void give(ByteBuffer buffer) {
+        if (buffer.capacity() != BUFFER_SIZE || buffer.isReadOnly() || !buffer.hasArray()) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        FREE.offer(buffer);
+    }
+}
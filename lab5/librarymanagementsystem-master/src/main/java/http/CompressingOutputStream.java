@@ -0,0 +1,90 @@
+package http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A gzip or deflate stream over a pooled {@link Deflater}, unlike
+ * GZIPOutputStream which creates and ends a deflater for every stream.
+ * flushing sync-flushes the deflater, so everything written so far can be
+ * decompressed by the client, e.g. the progress lines of an import.
+ * closing the stream finishes it, gives the deflater back and closes out.
+ */
+public final class CompressingOutputStream extends DeflaterOutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    /* magic, CM = deflate, no flags, no mtime, XFL = 0, OS = unknown */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Encoding encoding;
+    private final CRC32 crc = new CRC32();
+    private boolean closed;
+
+    private CompressingOutputStream(OutputStream out, Encoding encoding, Deflater deflater) {
+        super(out, deflater, BUFFER_SIZE, true);
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return a stream compressing into out, with a deflater of the pool
+     */
+    public static CompressingOutputStream open(OutputStream out, Encoding encoding) throws IOException {
+        if (encoding == Encoding.IDENTITY) { // before a deflater is taken, nothing would give it back
+            throw new IllegalArgumentException("identity is not a compression");
+        }
+        Deflater deflater = DeflaterPool.of(encoding).take();
+        try {
+            if (encoding == Encoding.GZIP) {
+                out.write(GZIP_HEADER);
+            }
+        } catch (IOException | RuntimeException e) {
+            DeflaterPool.of(encoding).give(deflater);
+            throw e;
+        }
+        return new CompressingOutputStream(out, encoding, deflater);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        if (encoding == Encoding.GZIP) {
+            crc.update(b, off, len);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (def.finished()) {
+            return;
+        }
+        super.finish();
+        if (encoding == Encoding.GZIP) {
+            writeIntLE(crc.getValue());
+            writeIntLE(def.getBytesRead());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            DeflaterPool.of(encoding).give(def);
+            out.close();
+        }
+    }
+
+    private void writeIntLE(long v) throws IOException {
+        out.write((int) v & 0xff);
+        out.write((int) (v >>> 8) & 0xff);
+        out.write((int) (v >>> 16) & 0xff);
+        out.write((int) (v >>> 24) & 0xff);
+    }
+}
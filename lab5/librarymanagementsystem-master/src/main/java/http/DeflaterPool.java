@@ -0,0 +1,43 @@
+package http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Reuses Deflaters, whose native zlib state costs far more to create than to
+ * reset. gzip needs raw deflate (nowrap), deflate the zlib wrapper, so there
+ * is one pool per kind. at most capacity idle deflaters are kept, the others
+ * are ended when they are given back.
+ */
+final class DeflaterPool {
+
+    static final int LEVEL = Integer.getInteger("library.http.compressLevel", 6);
+
+    private static final DeflaterPool RAW = new DeflaterPool(true, 32);
+    private static final DeflaterPool ZLIB = new DeflaterPool(false, 32);
+
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> idle;
+
+    private DeflaterPool(boolean nowrap, int capacity) {
+        this.nowrap = nowrap;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static DeflaterPool of(Encoding encoding) {
+        return encoding == Encoding.GZIP ? RAW : ZLIB;
+    }
+
+    Deflater take() {
+        Deflater deflater = idle.poll();
+        return deflater != null ? deflater : new Deflater(LEVEL, nowrap);
+    }
+
+    void give(Deflater deflater) {
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
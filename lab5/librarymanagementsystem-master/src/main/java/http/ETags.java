@@ -0,0 +1,98 @@
+package http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import utils.ResourceVersion;
+
+import java.io.IOException;
+
+/**
+ * Entity tags of GET responses, derived from the version of the resource
+ * family and the query, so a revalidation is answered without reading.
+ *
+ * Note:
+ *      (1) tags are weak, the same data is sent gzipped, deflated or as is.
+ *      (2) the boot time is part of every tag, versions restart from 0
+ *          with the process and must not match tags handed out before.
+ *      (3) take the tag before reading, see {@link ResourceVersion}.
+ */
+public final class ETags {
+
+    private static final String BOOT = Long.toHexString(System.currentTimeMillis());
+
+    private ETags() {
+    }
+
+    /**
+     * @return the tag of the current version of resource, for the request of exchange
+     */
+    public static String of(ResourceVersion resource, HttpExchange exchange) {
+        return of(resource, resource.get(), MicroCache.key(exchange));
+    }
+
+    /**
+     * @param request the canonical path and query, see {@link MicroCache#key}
+     */
+    public static String of(ResourceVersion resource, long version, String request) {
+        return "W/\"" + BOOT + '-' + resource.ordinal() + '-' + Long.toHexString(version)
+                + '-' + Long.toHexString(hash(request)) + '"';
+    }
+
+    /**
+     * answers 304 Not Modified if the request is conditional on etag.
+     *
+     * @return whether the exchange was answered
+     */
+    public static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        if (!matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            return false;
+        }
+        tag(exchange, etag);
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    /**
+     * sets the headers of a response carrying etag, before it is sent.
+     */
+    public static void tag(HttpExchange exchange, String etag) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "no-cache"); // always revalidate, the tag makes it cheap
+        headers.set("Access-Control-Expose-Headers", "ETag");
+    }
+
+    /**
+     * @return whether an If-None-Match header lists etag, compared weakly
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = etag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* FNV-1a, the tag only has to tell requests apart */
+    private static long hash(String request) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < request.length(); i++) {
+            h = (h ^ request.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
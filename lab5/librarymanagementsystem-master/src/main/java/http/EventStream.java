@@ -0,0 +1,158 @@
+package http;
+
+import com.sun.net.httpserver.HttpExchange;
+import utils.ChangeEvent;
+import utils.ChangeFeed;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Server-Sent Events stream of the {@link ChangeFeed}, so screens follow
+ * stock and loans without polling:
+ *      event: stock
+ *      data: {"bookId":1,"stock":3}
+ *
+ * Note:
+ *      (1) the handler returns as soon as the stream is open, events are
+ *          written by writer threads, one at a time per stream. an open
+ *          stream holds no handler thread, of HttpServer nor of the NIO
+ *          front end.
+ *      (2) a stream buffers at most library.events.buffer events, coalesced
+ *          while its client is slow, see {@link ChangeFeed}. a client stuck
+ *          on a write only holds its own writer thread.
+ *      (3) a comment is sent every library.events.heartbeat ms, which keeps
+ *          proxies and the idle sweep of the NIO front end from closing the
+ *          stream, and finds clients that have gone away.
+ *      (4) events are not compressed, each one is flushed as it comes.
+ *      (5) a client that reconnects gets none of the events it missed, it
+ *          reads the state again, as it does on a reset event.
+ */
+public final class EventStream {
+
+    static final int BUFFER = Integer.getInteger("library.events.buffer", 256);
+    static final long HEARTBEAT_MILLIS = Long.getLong("library.events.heartbeat", 15000);
+
+    /* the client reconnects after 3 s */
+    private static final byte[] HELLO = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT = "event: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DATA = "\ndata: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(daemon("sse-writer-"));
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(daemon("sse-heartbeat-"));
+    private static final Set<EventStream> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        TIMER.scheduleAtFixedRate(() -> {
+            for (EventStream stream : OPEN) {
+                stream.heartbeat = true;
+                stream.schedule();
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private final HttpExchange exchange;
+    private final OutputStream out;
+    private ChangeFeed.Subscription subscription;
+    /* set until open has subscribed, changes published meanwhile wait for the first write */
+    private final AtomicBoolean scheduled = new AtomicBoolean(true);
+    private volatile boolean heartbeat;
+    private volatile boolean closed;
+    /* only touched by the writer of the moment */
+    private boolean started;
+
+    private EventStream(HttpExchange exchange) {
+        this.exchange = exchange;
+        this.out = exchange.getResponseBody();
+    }
+
+    /**
+     * starts the response and subscribes it to feed, the exchange stays
+     * open until its client goes away.
+     */
+    public static void open(HttpExchange exchange, ChangeFeed feed) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        if (exchange instanceof NioExchange) {
+            ((NioExchange) exchange).detach();
+        }
+        EventStream stream = new EventStream(exchange);
+        stream.subscription = feed.subscribe(BUFFER, stream::schedule);
+        OPEN.add(stream);
+        WRITERS.execute(stream::write);
+    }
+
+    /**
+     * @return the number of open streams
+     */
+    public static int count() {
+        return OPEN.size();
+    }
+
+    private void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true)) {
+            WRITERS.execute(this::write);
+        }
+    }
+
+    private void write() {
+        try {
+            do {
+                List<ChangeEvent> events = subscription.drain();
+                if (!started) {
+                    started = true;
+                    out.write(HELLO);
+                } else if (events.isEmpty() && heartbeat) {
+                    out.write(HEARTBEAT);
+                }
+                heartbeat = false;
+                for (ChangeEvent event : events) {
+                    out.write(EVENT);
+                    out.write(event.getType().getBytes(StandardCharsets.UTF_8));
+                    out.write(DATA);
+                    out.write(event.getData());
+                    out.write(END);
+                }
+                out.flush();
+                scheduled.set(false);
+                // a change published meanwhile did not schedule us again
+            } while ((subscription.hasPending() || heartbeat) && scheduled.compareAndSet(false, true));
+        } catch (IOException | RuntimeException e) {
+            close();
+        }
+    }
+
+    private void close() {
+        closed = true;
+        OPEN.remove(this);
+        subscription.close();
+        try {
+            exchange.close();
+        } catch (RuntimeException e) {
+            // the client is gone already
+        }
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,187 @@
+package http;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A short-lived cache of serialized GET responses, keyed by the canonical
+ * request URI, so a burst of identical requests is served from one read.
+ *
+ * Note:
+ *      (1) an entry is only served to a request with the same ETag, and the
+ *          tag carries the version of the resource family, so a mutating
+ *          POST invalidates every entry of its family by bumping the version,
+ *          see {@link ETags}. the TTL bounds how long changes made outside
+ *          this process stay unseen.
+ *      (2) concurrent misses of the same URI and tag wait for a single load.
+ *          the flight is keyed by the tag too, a request that saw a newer
+ *          version never gets data of an older one.
+ *      (3) entries are evicted least recently used first once the bodies
+ *          exceed the byte budget, the compressed forms a body memoizes
+ *          are not counted. bodies over 1/8 of the budget are not kept.
+ */
+public final class MicroCache {
+
+    public static final MicroCache RESPONSES = new MicroCache(
+            Long.getLong("library.http.cacheTtl", 2000),
+            Long.getLong("library.http.cacheBytes", 16L << 20));
+
+    private final long ttlNanos;
+    private final long maxBytes;
+    /* in access order, guarded by itself */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Body>> loading = new ConcurrentHashMap<>();
+    private long bytes;
+
+    /**
+     * @param ttlMillis how long an entry is served, 0 disables the cache
+     */
+    public MicroCache(long ttlMillis, long maxBytes) {
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.maxBytes = maxBytes;
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @return the body to send, or null if the request failed and must not be cached
+         */
+        Body load() throws IOException;
+    }
+
+    /**
+     * @return the cached body of key tagged etag, or the one loaded by this or a concurrent request
+     */
+    public Body get(String key, String etag, Loader loader) throws IOException {
+        if (ttlNanos <= 0) {
+            return loader.load();
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.etag.equals(etag) && entry.expires - System.nanoTime() > 0) {
+                    return entry.body;
+                }
+                remove(key);
+            }
+        }
+        String flight = etag + ' ' + key;
+        CompletableFuture<Body> mine = new CompletableFuture<>();
+        CompletableFuture<Body> other = loading.putIfAbsent(flight, mine);
+        if (other != null) {
+            return await(other);
+        }
+        try {
+            Body body = loader.load();
+            if (body != null) {
+                put(key, new Entry(etag, body, System.nanoTime() + ttlNanos));
+            }
+            mine.complete(body);
+            return body;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(flight, mine);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the path and query of the request, with the parameters sorted
+     */
+    public static String key(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getRawPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return path;
+        }
+        String[] params = query.split("&");
+        Arrays.sort(params);
+        StringBuilder sb = new StringBuilder(path.length() + query.length() + 1).append(path);
+        char separator = '?';
+        for (String param : params) {
+            if (!param.isEmpty()) {
+                sb.append(separator).append(param);
+                separator = '&';
+            }
+        }
+        return sb.toString();
+    }
+
+    private void put(String key, Entry entry) {
+        long size = entry.body.bytes().length;
+        if (size > maxBytes / 8) {
+            return;
+        }
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            bytes += size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().body.bytes().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /* the caller holds the lock */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.body.bytes().length;
+        }
+    }
+
+    private static Body await(CompletableFuture<Body> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a response being loaded", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class Entry {
+        final String etag;
+        final Body body;
+        final long expires;
+
+        Entry(String etag, Body body, long expires) {
+            this.etag = etag;
+            this.body = body;
+            this.expires = expires;
+        }
+    }
+}
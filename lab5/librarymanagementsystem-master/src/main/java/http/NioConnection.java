@@ -0,0 +1,491 @@
+package http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * A connection of the {@link NioHttpServer}: parses its requests and writes
+ * its responses, one exchange at a time.
+ *
+ * Note:
+ *      (1) the request side is only touched by the selector thread. the
+ *          outbound queue is shared with the worker writing the response,
+ *          and guarded by this.
+ *      (2) the read buffer holds the bytes received but not parsed yet,
+ *          from {@link #mark} to its position. it is given back to the pool
+ *          whenever nothing is left in it.
+ */
+final class NioConnection {
+
+    /* a chunked response blocks its worker above this many queued bytes, until below the low water */
+    private static final int HIGH_WATER = 256 * 1024;
+    private static final int LOW_WATER = 64 * 1024;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final NioHttpServer server;
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    /* selector thread only */
+    private ByteBuffer in;
+    private int mark;
+    private int scanned;
+    private NioExchange reading; // waiting for the rest of its body
+    private ByteBuffer body;
+    private boolean dispatched;
+    private boolean finished;
+    private boolean closeAfter;
+    private long lastActive = System.nanoTime();
+
+    /* guarded by this */
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private long pending;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    NioConnection(NioHttpServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+    }
+
+    void register(SelectionKey key) {
+        this.key = key;
+    }
+
+    InetSocketAddress localAddress() {
+        return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+    }
+
+    InetSocketAddress remoteAddress() {
+        return (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+    }
+
+    /* ---- selector thread ---- */
+
+    void read() {
+        int n;
+        try {
+            if (body != null) {
+                n = channel.read(body);
+                if (n > 0 && !body.hasRemaining()) {
+                    NioExchange exchange = reading;
+                    reading = null;
+                    body = null;
+                    dispatch(exchange);
+                }
+            } else {
+                if (in == null) {
+                    in = BufferPool.take();
+                    mark = scanned = 0;
+                }
+                n = channel.read(in);
+                if (n > 0) {
+                    parse();
+                }
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (n < 0) {
+            close();
+        } else {
+            lastActive = System.nanoTime();
+        }
+    }
+
+    void write() {
+        boolean drained;
+        try {
+            synchronized (this) {
+                flushScheduled = false;
+                if (closed) {
+                    return;
+                }
+                for (ByteBuffer buffer; (buffer = outbound.peek()) != null; ) {
+                    int n = channel.write(buffer);
+                    pending -= n;
+                    if (n > 0) {
+                        lastActive = System.nanoTime();
+                    }
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    outbound.poll();
+                    BufferPool.give(buffer);
+                }
+                if (pending <= LOW_WATER) {
+                    notifyAll();
+                }
+                drained = outbound.isEmpty();
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (drained && finished) {
+            next();
+        } else {
+            interest();
+        }
+    }
+
+    /**
+     * @return whether the connection has waited too long for its client,
+     *         a handler still working on a response is not counted
+     */
+    boolean idle(long now) {
+        if (now - lastActive <= NioHttpServer.IDLE_TIMEOUT_NANOS) {
+            return false;
+        }
+        synchronized (this) {
+            return !dispatched || finished || !outbound.isEmpty();
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.forEach(BufferPool::give);
+            outbound.clear();
+            pending = 0;
+            notifyAll();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        if (in != null) {
+            BufferPool.give(in);
+            in = null;
+        }
+    }
+
+    /* the response is written, go on with the next request */
+    private void next() {
+        finished = false;
+        dispatched = false;
+        if (closeAfter) {
+            close();
+            return;
+        }
+        parse();
+    }
+
+    private void parse() {
+        while (!dispatched && in != null) {
+            byte[] a = in.array();
+            int end = in.position();
+            while (mark < end && (a[mark] == '\r' || a[mark] == '\n')) {
+                mark++; // empty lines before a request are ignored
+            }
+            int headEnd = headEnd(a, Math.max(mark, scanned - 3), end);
+            if (headEnd < 0) {
+                scanned = end;
+                if (mark == end) {
+                    BufferPool.give(in);
+                    in = null;
+                } else if (end == a.length) {
+                    if (mark == 0) {
+                        reject(431, "Request Header Fields Too Large");
+                        return;
+                    }
+                    System.arraycopy(a, mark, a, 0, end - mark);
+                    in.position(end - mark);
+                    scanned -= mark;
+                    mark = 0;
+                }
+                break;
+            }
+            NioExchange exchange;
+            try {
+                exchange = parseHead(a, mark, headEnd);
+            } catch (BadRequest e) {
+                reject(e.status, e.getMessage());
+                return;
+            }
+            mark = scanned = headEnd;
+            if (exchange == null) {
+                return; // rejected, no context
+            }
+            int length = exchange.requestLength();
+            int buffered = Math.min(length, end - mark);
+            byte[] bytes = new byte[length];
+            System.arraycopy(a, mark, bytes, 0, buffered);
+            mark += buffered;
+            exchange.setRequestBody(bytes);
+            if (mark == end) {
+                BufferPool.give(in);
+                in = null;
+            }
+            if (buffered == length) {
+                dispatch(exchange);
+            } else {
+                reading = exchange;
+                body = ByteBuffer.wrap(bytes, buffered, length - buffered);
+                if ("100-continue".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Expect"))) {
+                    queue(ByteBuffer.wrap(CONTINUE));
+                }
+            }
+        }
+        interest();
+    }
+
+    /**
+     * @return the index after the empty line ending the head in a[from, to), or -1
+     */
+    private static int headEnd(byte[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < to && a[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < to && a[i + 1] == '\r' && a[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the exchange of the head in a[from, to), or null if it has been answered already
+     */
+    private NioExchange parseHead(byte[] a, int from, int to) throws BadRequest {
+        int eol = lineEnd(a, from, to);
+        int sp1 = indexOf(a, from, eol, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(a, sp1 + 1, eol, (byte) ' ');
+        if (sp2 < 0) {
+            throw new BadRequest(400, "Bad Request");
+        }
+        String method = method(a, from, sp1);
+        String target = new String(a, sp1 + 1, sp2 - sp1 - 1, StandardCharsets.ISO_8859_1);
+        String protocol = new String(a, sp2 + 1, trimEnd(a, sp2 + 1, eol) - sp2 - 1, StandardCharsets.ISO_8859_1);
+        if (!protocol.startsWith("HTTP/1.")) {
+            throw new BadRequest(505, "HTTP Version Not Supported");
+        }
+
+        Headers headers = new Headers();
+        for (int line = next(a, eol, to); line < to; ) {
+            eol = lineEnd(a, line, to);
+            int end = trimEnd(a, line, eol);
+            if (end == line) {
+                break; // the empty line
+            }
+            int colon = indexOf(a, line, end, (byte) ':');
+            if (colon <= line || a[line] == ' ' || a[line] == '\t') {
+                throw new BadRequest(400, "Bad Request"); // no name, or an obsolete folded line
+            }
+            int value = colon + 1;
+            while (value < end && (a[value] == ' ' || a[value] == '\t')) {
+                value++;
+            }
+            headers.add(new String(a, line, trimEnd(a, line, colon) - line, StandardCharsets.ISO_8859_1),
+                    new String(a, value, end - value, StandardCharsets.ISO_8859_1));
+            line = next(a, eol, to);
+        }
+
+        if (headers.containsKey("Transfer-Encoding")) {
+            throw new BadRequest(411, "Length Required");
+        }
+        int length = 0;
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null) {
+            long value;
+            try {
+                value = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequest(400, "Bad Request");
+            }
+            if (value < 0) {
+                throw new BadRequest(400, "Bad Request");
+            }
+            if (value > NioHttpServer.MAX_BODY) {
+                throw new BadRequest(413, "Payload Too Large");
+            }
+            length = (int) value;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(target);
+        } catch (URISyntaxException e) {
+            throw new BadRequest(400, "Bad Request");
+        }
+        String connection = headers.getFirst("Connection");
+        boolean keepAlive = protocol.equals("HTTP/1.0")
+                ? connection != null && connection.toLowerCase().contains("keep-alive")
+                : connection == null || !connection.toLowerCase().contains("close");
+
+        HttpContext context = uri.getPath() == null ? null : server.context(uri.getPath());
+        if (context == null) {
+            // as HttpServer answers, the body, if any, is not read
+            reject(404, "Not Found");
+            return null;
+        }
+        return new NioExchange(this, context, method, uri, protocol, headers, length, keepAlive);
+    }
+
+    private static int lineEnd(byte[] a, int from, int to) {
+        int i = indexOf(a, from, to, (byte) '\n');
+        return i < 0 ? to : i;
+    }
+
+    /* the start of the line after the one ending at eol */
+    private static int next(byte[] a, int eol, int to) {
+        return Math.min(eol + 1, to);
+    }
+
+    private static int trimEnd(byte[] a, int from, int to) {
+        while (to > from && (a[to - 1] == '\r' || a[to - 1] == ' ' || a[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static int indexOf(byte[] a, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* the common methods are not allocated again */
+    private static String method(byte[] a, int from, int to) {
+        for (String method : new String[]{"GET", "POST", "OPTIONS", "HEAD"}) {
+            if (method.length() == to - from && matches(a, from, method)) {
+                return method;
+            }
+        }
+        return new String(a, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean matches(byte[] a, int from, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (a[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(NioExchange exchange) {
+        dispatched = true;
+        interest();
+        server.dispatch(exchange);
+    }
+
+    /* answers without a handler and closes the connection, the rest of the request is not read */
+    private void reject(int status, String reason) {
+        dispatched = true;
+        finished = true;
+        closeAfter = true;
+        queue(ByteBuffer.wrap(("HTTP/1.1 " + status + ' ' + reason
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        write();
+    }
+
+    private void queue(ByteBuffer buffer) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            outbound.add(buffer);
+            pending += buffer.remaining();
+        }
+        interest();
+    }
+
+    private void interest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = dispatched ? 0 : SelectionKey.OP_READ;
+        synchronized (this) {
+            if (!outbound.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        key.interestOps(ops);
+    }
+
+    /* ---- worker thread ---- */
+
+    /**
+     * queues buffer to be written, it belongs to the connection from now on.
+     *
+     * @param wait whether to wait while too much is queued already
+     */
+    void send(ByteBuffer buffer, boolean wait) throws IOException {
+        synchronized (this) {
+            while (wait && pending > HIGH_WATER && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while the client was reading slowly", e);
+                }
+            }
+            if (closed) {
+                BufferPool.give(buffer);
+                throw new IOException("connection closed by the client");
+            }
+            outbound.add(buffer);
+            pending += buffer.remaining();
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        server.execute(this::write);
+    }
+
+    /**
+     * ends the exchange, the next request is parsed once the response is written.
+     *
+     * @param close whether to close the connection afterwards instead
+     */
+    void complete(boolean close) {
+        server.execute(() -> {
+            closeAfter |= close;
+            finished = true;
+            write();
+        });
+    }
+
+    void abort() {
+        server.execute(this::close);
+    }
+
+    private static final class BadRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String reason) {
+            super(reason, null, false, false);
+            this.status = status;
+        }
+    }
+}
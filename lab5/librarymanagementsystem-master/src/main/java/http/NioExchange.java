@@ -0,0 +1,374 @@
+package http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An exchange of the {@link NioHttpServer}, read in full before its handler
+ * runs. the response is framed like HttpServer frames it: a positive length
+ * is sent as Content-Length, 0 as chunked (or up to the close of the
+ * connection for HTTP/1.0), -1 as no body.
+ */
+final class NioExchange extends HttpExchange {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final NioConnection connection;
+    private final HttpContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final int requestLength;
+    private final boolean keepAlive;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ResponseStream response = new ResponseStream();
+    private InputStream requestBody;
+    private OutputStream responseBody = response;
+    private int responseCode = -1;
+    private volatile boolean detached;
+
+    NioExchange(NioConnection connection, HttpContext context, String method, URI uri, String protocol,
+                Headers requestHeaders, int requestLength, boolean keepAlive) {
+        this.connection = connection;
+        this.context = context;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.requestLength = requestLength;
+        this.keepAlive = keepAlive;
+    }
+
+    int requestLength() {
+        return requestLength;
+    }
+
+    void setRequestBody(byte[] bytes) {
+        requestBody = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        try {
+            responseBody.close();
+        } catch (IOException e) {
+            connection.abort();
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("headers already sent");
+        }
+        responseCode = rCode;
+        boolean noBody = responseLength == -1 || rCode == 204 || rCode == 304 || rCode < 200;
+        boolean http10 = protocol.equals("HTTP/1.0");
+        boolean close = !keepAlive;
+
+        StringBuilder head = new StringBuilder(256);
+        head.append(http10 ? "HTTP/1.0 " : "HTTP/1.1 ").append(rCode).append(' ')
+                .append(reason(rCode)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+                    || name.equalsIgnoreCase("Connection")) {
+                continue; // framing is ours
+            }
+            for (String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        long length;
+        if (noBody) {
+            length = 0;
+            if (rCode >= 200 && rCode != 204 && rCode != 304) {
+                head.append("Content-Length: 0\r\n");
+            }
+        } else if (responseLength > 0) {
+            length = responseLength;
+            head.append("Content-Length: ").append(responseLength).append("\r\n");
+        } else if (!http10) {
+            length = -1;
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            length = -1;
+            close = true; // the body ends with the connection
+        }
+        if (close) {
+            head.append("Connection: close\r\n");
+        } else if (http10) {
+            head.append("Connection: keep-alive\r\n");
+        }
+        head.append("\r\n");
+
+        response.start(head.toString().getBytes(StandardCharsets.ISO_8859_1), length,
+                length < 0 && !http10, method.equals("HEAD"), close);
+        if (noBody) {
+            response.close();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.remoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.localAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            requestBody = i;
+        }
+        if (o != null) {
+            responseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * keeps the exchange open once its handler returns, the response is
+     * written and closed by another thread, as HttpServer allows.
+     */
+    void detach() {
+        detached = true;
+    }
+
+    /**
+     * ends the exchange after its handler returned, answering 500 if it sent nothing.
+     */
+    void finish() throws IOException {
+        if (detached) {
+            return;
+        }
+        if (responseCode < 0) {
+            sendResponseHeaders(500, -1);
+        }
+        response.close();
+    }
+
+    /**
+     * ends the exchange after its handler failed, the connection is dropped
+     * if the response has been started already.
+     */
+    void abort() {
+        if (responseCode < 0) {
+            try {
+                responseHeaders.clear();
+                sendResponseHeaders(500, -1);
+                return;
+            } catch (IOException e) {
+                // fall through
+            }
+        }
+        connection.abort();
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 500:
+                return "Internal Server Error";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * the body of the response, queued to the connection in pooled buffers.
+     */
+    private final class ResponseStream extends OutputStream {
+        private ByteBuffer current;
+        private long remaining; // of a fixed length, -1 if unknown
+        private boolean chunked;
+        private boolean discard;
+        private boolean close;
+        private boolean started;
+        private boolean closed;
+
+        void start(byte[] head, long length, boolean chunked, boolean discard, boolean close) throws IOException {
+            this.remaining = length;
+            this.chunked = chunked && !discard;
+            this.discard = discard;
+            this.close = close;
+            this.started = true;
+            current = BufferPool.take();
+            if (head.length <= current.capacity()) {
+                current.put(head);
+            } else {
+                connection.send(ByteBuffer.wrap(head), false);
+            }
+            if (this.chunked) { // the head goes unframed, the chunks follow in buffers of their own
+                ByteBuffer buffer = current;
+                current = null;
+                buffer.flip();
+                connection.send(buffer, false);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!started || closed) {
+                throw new IOException(closed ? "response already closed" : "response headers not sent");
+            }
+            if (remaining >= 0) {
+                if (len > remaining) {
+                    throw new IOException("more bytes than the Content-Length of the response");
+                }
+                remaining -= len;
+            }
+            if (discard) {
+                return;
+            }
+            while (len > 0) {
+                if (current == null) {
+                    current = BufferPool.take();
+                } else if (!current.hasRemaining()) {
+                    handOff();
+                    continue;
+                }
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (started && !closed && current != null && current.position() > 0) {
+                handOff();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed || !started) {
+                if (!started) {
+                    connection.abort(); // as HttpServer drops a connection closed without a response
+                }
+                return;
+            }
+            closed = true;
+            if (current != null) {
+                handOff();
+            }
+            if (chunked) {
+                connection.send(ByteBuffer.wrap(LAST_CHUNK), true);
+            }
+            connection.complete(close || remaining > 0 && !discard); // a short body breaks the framing
+        }
+
+        private void handOff() throws IOException {
+            ByteBuffer buffer = current;
+            current = null;
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                BufferPool.give(buffer);
+            } else if (chunked) {
+                connection.send(ByteBuffer.wrap((Integer.toHexString(buffer.remaining()) + "\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1)), true);
+                connection.send(buffer, true);
+                connection.send(ByteBuffer.wrap(CRLF), true);
+            } else {
+                connection.send(buffer, remaining < 0); // a fixed length body is in memory already
+            }
+        }
+    }
+}
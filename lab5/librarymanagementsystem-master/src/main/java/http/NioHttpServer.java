@@ -0,0 +1,298 @@
+package http;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An HTTP/1.1 front end on a selector, serving the same {@link HttpHandler}s
+ * as {@link HttpServer} without a thread per connection.
+ *
+ * Note:
+ *      (1) one selector thread accepts, reads and writes every connection
+ *          without blocking. a request is parsed from pooled buffers and
+ *          read in full, body included, before it is handed to a worker,
+ *          so a slow client never holds a worker while it sends.
+ *      (2) responses are queued by the worker and written by the selector
+ *          thread. fixed-length responses are queued whole, the worker is
+ *          free as soon as the handler returns. chunked responses block the
+ *          worker while too much is queued, so an export follows the pace
+ *          of its client instead of piling up in memory.
+ *      (3) connections are kept alive, pipelined requests are answered one
+ *          at a time in order, the next is parsed once the previous response
+ *          has been written. connections idle, or stuck writing, for longer
+ *          than library.http.idleTimeout ms are closed.
+ *      (4) handlers see an {@link HttpExchange} as they do under HttpServer,
+ *          filters and authenticators of a context are not applied.
+ *      (5) request bodies must carry a Content-Length, of at most
+ *          library.http.maxBody bytes.
+ */
+public final class NioHttpServer {
+
+    private static final Logger log = Logger.getLogger(NioHttpServer.class.getName());
+
+    static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("library.http.idleTimeout", 30000));
+    static final int MAX_BODY = Integer.getInteger("library.http.maxBody", 16 << 20);
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Selector selector;
+    private final ServerSocketChannel acceptor;
+    private final ExecutorService workers;
+    /* run by the selector thread, so connections are only changed there */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /* longest path first */
+    private final List<Context> contexts = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private Thread loop;
+
+    private NioHttpServer(InetSocketAddress address, int backlog, int workers) throws IOException {
+        this.selector = Selector.open();
+        this.acceptor = ServerSocketChannel.open();
+        acceptor.bind(address, backlog);
+        acceptor.configureBlocking(false);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "http-worker-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * @param workers threads the handlers run on
+     */
+    public static NioHttpServer create(InetSocketAddress address, int backlog, int workers) throws IOException {
+        return new NioHttpServer(address, backlog, workers);
+    }
+
+    /**
+     * maps requests whose path starts with path to handler, the longest path wins.
+     */
+    public HttpContext createContext(String path, HttpHandler handler) {
+        Context context = new Context(path, handler);
+        int i = 0;
+        while (i < contexts.size() && contexts.get(i).getPath().length() >= path.length()) {
+            i++;
+        }
+        contexts.add(i, context);
+        return context;
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) acceptor.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        running = true;
+        loop = new Thread(this::run, "http-selector");
+        loop.start();
+    }
+
+    /**
+     * closes every connection, a response being written is cut off.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * runs task on the selector thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void dispatch(NioExchange exchange) {
+        workers.execute(() -> {
+            try {
+                exchange.getHttpContext().getHandler().handle(exchange);
+                exchange.finish();
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "handler failed on " + exchange.getRequestURI(), t);
+                exchange.abort();
+            }
+        });
+    }
+
+    /**
+     * @return the context serving path, or null if none does
+     */
+    HttpContext context(String path) {
+        for (Context context : contexts) {
+            if (path.startsWith(context.getPath())) {
+                return context;
+            }
+        }
+        return null;
+    }
+
+    private void run() {
+        long lastSweep = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(1000);
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    task.run();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            log.log(Level.WARNING, "failed to accept a connection", e); // e.g. out of file descriptors
+                        }
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - lastSweep > SWEEP_NANOS) {
+                    lastSweep = now;
+                    sweep(now);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "selector failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).close();
+                }
+            }
+            try {
+                acceptor.close();
+                selector.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "failed to close the selector", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel channel; (channel = acceptor.accept()) != null; ) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            NioConnection connection = new NioConnection(this, channel);
+            connection.register(channel.register(selector, SelectionKey.OP_READ, connection));
+        }
+    }
+
+    private void sweep(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection && ((NioConnection) attachment).idle(now)) {
+                ((NioConnection) attachment).close();
+            }
+        }
+    }
+
+    private static final class Context extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final Map<String, Object> attributes = Collections.synchronizedMap(new HashMap<>());
+        private final List<Filter> filters = new ArrayList<>();
+        private Authenticator authenticator;
+
+        Context(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return null, this context does not belong to an {@link HttpServer}
+         */
+        @Override
+        public HttpServer getServer() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator authenticator) {
+            Authenticator previous = this.authenticator;
+            this.authenticator = authenticator;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package http;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sends response bodies with the coding negotiated from Accept-Encoding.
+ *
+ * Note:
+ *      (1) bodies shorter than the threshold, "library.http.compressThreshold"
+ *          bytes (1024 by default), are sent as they are, compressing them
+ *          costs more than the bytes it saves.
+ *      (2) bodies of known length keep an exact Content-Length, the length
+ *          of the compressed bytes, compressed into a buffer reused by the
+ *          thread. streams are chunked and compressed on the fly. both go
+ *          through pooled deflaters.
+ *      (3) every response that could have been compressed carries
+ *          "Vary: Accept-Encoding", so shared caches keep the codings apart.
+ */
+public final class Responses {
+
+    public static final int COMPRESS_THRESHOLD = Integer.getInteger("library.http.compressThreshold", 1024);
+
+    /* the output buffer of the compressor, reused by the requests of a thread */
+    private static final ThreadLocal<Sink> SINK = ThreadLocal.withInitial(Sink::new);
+
+    private Responses() {
+    }
+
+    public static Encoding accepted(HttpExchange exchange) {
+        return Encoding.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    }
+
+    /**
+     * sends bytes[offset, offset + length) and closes the exchange.
+     */
+    public static void send(HttpExchange exchange, int status, String contentType,
+                            byte[] bytes, int offset, int length) throws IOException {
+        Encoding encoding = length >= COMPRESS_THRESHOLD ? accepted(exchange) : Encoding.IDENTITY;
+        if (encoding != Encoding.IDENTITY) {
+            Sink sink = SINK.get();
+            try {
+                Body.compress(bytes, offset, length, encoding, sink);
+                write(exchange, status, contentType, encoding, sink.array(), 0, sink.size());
+            } finally {
+                sink.recycle();
+            }
+        } else {
+            write(exchange, status, contentType, Encoding.IDENTITY, bytes, offset, length);
+        }
+    }
+
+    /**
+     * sends what a JSON writer holds and closes the exchange, without copying
+     * it out of the writer unless it is compressed.
+     */
+    public static void send(HttpExchange exchange, int status, String contentType, JSONWriter writer) throws IOException {
+        int length = writer.size();
+        Encoding encoding = length >= COMPRESS_THRESHOLD ? accepted(exchange) : Encoding.IDENTITY;
+        headers(exchange, contentType, encoding);
+        if (encoding == Encoding.IDENTITY) {
+            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                writer.flushTo(out);
+            }
+            return;
+        }
+        Sink sink = SINK.get();
+        try {
+            try (CompressingOutputStream zip = CompressingOutputStream.open(sink, encoding)) {
+                writer.flushTo(zip);
+            }
+            exchange.sendResponseHeaders(status, sink.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(sink.array(), 0, sink.size());
+            }
+        } finally {
+            sink.recycle();
+        }
+    }
+
+    /**
+     * sends a body, reusing the compressed bytes it already holds, and closes the exchange.
+     */
+    public static void send(HttpExchange exchange, int status, Body body) throws IOException {
+        byte[] bytes = body.bytes();
+        Encoding encoding = bytes.length >= COMPRESS_THRESHOLD ? accepted(exchange) : Encoding.IDENTITY;
+        byte[] encoded = body.encoded(encoding);
+        write(exchange, status, body.contentType(), encoding, encoded, 0, encoded.length);
+    }
+
+    /**
+     * sends the headers of a chunked response.
+     *
+     * @return the stream to write the body to, compressing if the client accepts it,
+     *         flushing it sends what has been written, closing it ends the response
+     */
+    public static OutputStream stream(HttpExchange exchange, int status, String contentType) throws IOException {
+        Encoding encoding = accepted(exchange);
+        headers(exchange, contentType, encoding);
+        exchange.sendResponseHeaders(status, 0);
+        OutputStream out = exchange.getResponseBody();
+        return encoding == Encoding.IDENTITY ? out : CompressingOutputStream.open(out, encoding);
+    }
+
+    private static void write(HttpExchange exchange, int status, String contentType, Encoding encoding,
+                              byte[] bytes, int offset, int length) throws IOException {
+        headers(exchange, contentType, encoding);
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes, offset, length);
+        }
+    }
+
+    private static void headers(HttpExchange exchange, String contentType, Encoding encoding) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.set("Vary", "Accept-Encoding");
+        if (encoding != Encoding.IDENTITY) {
+            headers.set("Content-Encoding", encoding.token());
+        }
+    }
+
+    private static final class Sink extends ByteArrayOutputStream {
+        /* a buffer grown beyond this by a huge response is dropped, not kept for the thread */
+        private static final int MAX_RETAINED = 1 << 20;
+
+        Sink() {
+            super(16384);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void recycle() {
+            reset();
+            if (buf.length > MAX_RETAINED) {
+                buf = new byte[16384];
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BK-tree over the distinct values of one string column, for typo tolerant lookup.
+ *
+ * Note:
+ *      (1) the children of a node are keyed by their Levenshtein distance
+ *          to the node. by the triangle inequality, a search for values
+ *          within distance k of a query only has to visit the children
+ *          whose key is within k of the query's distance to the node.
+ *      (2) keys are folded like {@link NGramIndex}, and every spelling
+ *          folding to a key is kept alive by the number of rows carrying it,
+ *          like {@link PrefixTrie} does. removed keys stay in the tree as
+ *          tombstones until they outnumber the live ones, then the tree is
+ *          rebuilt.
+ *      (3) a search visits more of the tree the larger its distance, up to
+ *          all of it, so callers should cap it to {@link #MAX_DISTANCE}.
+ *      (4) updates must be exclusive, searches may run concurrently,
+ *          see {@link BookSearchIndex}.
+ */
+public final class BKTree {
+
+    /* the largest distance worth searching for, beyond it nearly every node matches */
+    public static final int MAX_DISTANCE = 3;
+
+    private Node root;
+    private int live;
+    private int dead;
+
+    public void add(String value) {
+        String key = NGramIndex.fold(value);
+        if (root == null) {
+            root = new Node(key);
+            root.addVariant(value);
+            live++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = distance(key, node.key);
+            if (d == 0) {
+                if (node.count == 0) {
+                    live++;
+                    dead--;
+                }
+                node.addVariant(value);
+                return;
+            }
+            Node child = node.child(d);
+            if (child == null) {
+                child = new Node(key);
+                child.addVariant(value);
+                node.setChild(d, child);
+                live++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    public void remove(String value) {
+        String key = NGramIndex.fold(value);
+        Node node = root;
+        while (node != null) {
+            int d = distance(key, node.key);
+            if (d == 0) {
+                if (node.removeVariant(value) && node.count == 0) {
+                    live--;
+                    dead++;
+                    if (dead > live + 16) {
+                        rebuild();
+                    }
+                }
+                return;
+            }
+            node = node.child(d);
+        }
+    }
+
+    public void clear() {
+        root = null;
+        live = 0;
+        dead = 0;
+    }
+
+    /**
+     * @return every live spelling within maxDistance of the query
+     */
+    public List<String> search(String query, int maxDistance) {
+        List<String> result = new ArrayList<>();
+        if (root == null) {
+            return result;
+        }
+        String key = NGramIndex.fold(query);
+        List<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            int d = distance(key, node.key);
+            if (d <= maxDistance && node.count > 0) {
+                result.addAll(Arrays.asList(node.variants));
+            }
+            int from = Math.max(1, d - maxDistance);
+            int to = Math.min(node.children.length - 1, d + maxDistance);
+            for (int i = from; i <= to; i++) {
+                if (node.children[i] != null) {
+                    stack.add(node.children[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void rebuild() {
+        List<Node> alive = new ArrayList<>();
+        List<Node> stack = new ArrayList<>();
+        if (root != null) {
+            stack.add(root);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (node.count > 0) {
+                alive.add(node);
+            }
+            for (Node child : node.children) {
+                if (child != null) {
+                    stack.add(child);
+                }
+            }
+        }
+        clear();
+        for (Node node : alive) {
+            for (int i = 0; i < node.variants.length; i++) {
+                for (int j = 0; j < node.counts[i]; j++) {
+                    add(node.variants[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether a value is within maxDistance edits of a keyword,
+     *         compared the same way as the values in the tree
+     */
+    public static boolean within(String value, String keyword, int maxDistance) {
+        String a = NGramIndex.fold(value);
+        String b = NGramIndex.fold(keyword);
+        if (Math.abs(a.length() - b.length()) > maxDistance) { // needs too many insertions
+            return false;
+        }
+        return distance(a, b) <= maxDistance;
+    }
+
+    /* Levenshtein distance with two rolling rows */
+    static int distance(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = c == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    private static final class Node {
+        final String key;
+        /* how many rows carry any spelling of the key */
+        int count;
+        /* every spelling of the key, and how many rows carry each, null if none */
+        String[] variants;
+        int[] counts;
+        /* child at distance d is children[d] */
+        Node[] children = new Node[0];
+
+        Node(String key) {
+            this.key = key;
+        }
+
+        void addVariant(String spelling) {
+            count++;
+            int i = variants == null ? -1 : Arrays.asList(variants).indexOf(spelling);
+            if (i < 0) {
+                i = variants == null ? 0 : variants.length;
+                variants = variants == null ? new String[1] : Arrays.copyOf(variants, i + 1);
+                counts = counts == null ? new int[1] : Arrays.copyOf(counts, i + 1);
+                variants[i] = spelling;
+            }
+            counts[i]++;
+        }
+
+        /**
+         * @return false if no row carries this spelling
+         */
+        boolean removeVariant(String spelling) {
+            int i = variants == null ? -1 : Arrays.asList(variants).indexOf(spelling);
+            if (i < 0) {
+                return false;
+            }
+            count--;
+            if (--counts[i] == 0) {
+                int last = variants.length - 1;
+                variants[i] = variants[last];
+                counts[i] = counts[last];
+                variants = last == 0 ? null : Arrays.copyOf(variants, last);
+                counts = last == 0 ? null : Arrays.copyOf(counts, last);
+            }
+            return true;
+        }
+
+        Node child(int d) {
+            return d < children.length ? children[d] : null;
+        }
+
+        void setChild(int d, Node child) {
+            if (d >= children.length) {
+                children = Arrays.copyOf(children, d + 1);
+            }
+            children[d] = child;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package index;
+
+import entities.Book;
+import primitives.IntIntMap;
+import primitives.IntObjectMap;
+import queries.BookQueryConditions;
+import utils.ConnectConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process search index over the fuzzy matched columns of table book.
+ *
+ * Note:
+ *      (1) there is one index per database, shared by every connector
+ *          of this process, so a book stored through one connection can
+ *          be found through another one.
+ *      (2) the index is loaded lazily from the database on first use, and
+ *          then kept current by the book mutation methods after they commit.
+ *          changes made by other processes are not seen.
+ *      (3) the index only produces candidates, queryBook still evaluates
+ *          the original LIKE conditions on them. as a book missing from the
+ *          index is never a candidate, queryBook only prunes with them when
+ *          "searchindex: true" is configured, for a database no other
+ *          process writes to.
+ *      (4) the same index answers prefix completions of the three columns,
+ *          and finds their values within some edits of a misspelled keyword.
+ *          completions are ranked by the total stock of the books carrying
+ *          them, which the borrow, return and stock methods keep current.
+ */
+public final class BookSearchIndex {
+
+    public enum Field {
+        TITLE("title"),
+        AUTHOR("author"),
+        PRESS("press");
+
+        private final String column;
+
+        Field(String column) {
+            this.column = column;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
+
+    private static final Map<String, BookSearchIndex> instances = new ConcurrentHashMap<>();
+
+    public static BookSearchIndex of(ConnectConfig conf) {
+        String key = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
+        return instances.computeIfAbsent(key, k -> new BookSearchIndex());
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NGramIndex[] ngrams = new NGramIndex[Field.values().length];
+    private final PrefixTrie[] tries = new PrefixTrie[Field.values().length];
+    private final BKTree[] bkTrees = new BKTree[Field.values().length];
+    /* book_id --> indexed values, in the order of Field */
+    private final IntObjectMap<String[]> rows = new IntObjectMap<>();
+    /* book_id --> stock, the weight of the book in the tries */
+    private final IntIntMap stocks = new IntIntMap();
+    private volatile boolean loaded = false;
+
+    private BookSearchIndex() {
+        for (int i = 0; i < ngrams.length; i++) {
+            ngrams[i] = new NGramIndex();
+            tries[i] = new PrefixTrie();
+            bkTrees[i] = new BKTree();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * find the books that may satisfy the fuzzy conditions.
+     * title & author are left to {@link #similar} in edit distance mode.
+     *
+     * @return sorted candidate book ids, or null if none of the fuzzy
+     *         conditions can be served by the index
+     */
+    public int[] candidates(Connection conn, BookQueryConditions conditions) throws SQLException {
+        boolean fuzzy = conditions.getMaxEditDistance() == null;
+        String title = fuzzy ? conditions.getTitle() : null;
+        String author = fuzzy ? conditions.getAuthor() : null;
+        if (title == null && author == null && conditions.getPress() == null) {
+            return null;
+        }
+        ensureLoaded(conn);
+        lock.readLock().lock();
+        try {
+            int[] result = null;
+            if (title != null) {
+                result = NGramIndex.intersect(result, ngram(Field.TITLE).candidates(title));
+            }
+            if (author != null) {
+                result = NGramIndex.intersect(result, ngram(Field.AUTHOR).candidates(author));
+            }
+            if (conditions.getPress() != null) {
+                result = NGramIndex.intersect(result, ngram(Field.PRESS).candidates(conditions.getPress()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * find the values of a column within maxDistance edits of a keyword.
+     *
+     * @return distinct values, empty if nothing is close enough
+     */
+    public List<String> similar(Connection conn, Field field, String keyword, int maxDistance) throws SQLException {
+        ensureLoaded(conn);
+        lock.readLock().lock();
+        try {
+            return bkTrees[field.ordinal()].search(keyword, maxDistance);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * complete a prefix of a column, without touching the database
+     * once the index is loaded.
+     *
+     * @return at most k values, the ones with more copies in stock first
+     */
+    public List<String> suggest(Connection conn, Field field, String prefix, int k) throws SQLException {
+        ensureLoaded(conn);
+        lock.readLock().lock();
+        try {
+            return tries[field.ordinal()].complete(prefix, Math.min(k, PrefixTrie.MAX_K));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * add a committed book, with its stock.
+     */
+    public void put(Book book) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) { // will be read from the database when loading
+                return;
+            }
+            index(book.getBookId(), book.getTitle(), book.getAuthor(), book.getPress(), book.getStock());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * replace the title, author & press of a committed book, keeping its stock.
+     */
+    public void update(Book book) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            int stock = stocks.get(book.getBookId(), 0);
+            index(book.getBookId(), book.getTitle(), book.getAuthor(), book.getPress(), stock);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the committed stock of a book has changed.
+     */
+    public void stock(int bookId, int stock) {
+        lock.writeLock().lock();
+        try {
+            String[] values = rows.get(bookId);
+            if (!loaded || values == null) {
+                return;
+            }
+            int delta = stock - stocks.get(bookId, 0);
+            stocks.put(bookId, stock);
+            for (int i = 0; i < values.length; i++) {
+                tries[i].weigh(values[i], delta);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            unindex(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the book table has been recreated and is empty now.
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private NGramIndex ngram(Field field) {
+        return ngrams[field.ordinal()];
+    }
+
+    private void index(int bookId, String title, String author, String press, int stock) {
+        String[] values = new String[] {title, author, press};
+        String[] old = rows.put(bookId, values);
+        int oldStock = stocks.get(bookId, 0);
+        stocks.put(bookId, stock);
+        for (int i = 0; i < values.length; i++) {
+            ngrams[i].put(bookId, values[i]);
+            if (old != null) {
+                tries[i].remove(old[i], oldStock);
+                bkTrees[i].remove(old[i]);
+            }
+            tries[i].add(values[i], stock);
+            bkTrees[i].add(values[i]);
+        }
+    }
+
+    private void unindex(int bookId) {
+        String[] old = rows.remove(bookId);
+        if (old == null) {
+            return;
+        }
+        int oldStock = stocks.get(bookId, 0);
+        stocks.remove(bookId);
+        for (int i = 0; i < old.length; i++) {
+            ngrams[i].remove(bookId);
+            tries[i].remove(old[i], oldStock);
+            bkTrees[i].remove(old[i]);
+        }
+    }
+
+    private void clear() {
+        rows.clear();
+        stocks.clear();
+        for (int i = 0; i < ngrams.length; i++) {
+            ngrams[i].clear();
+            tries[i].clear();
+            bkTrees[i].clear();
+        }
+    }
+
+    private void ensureLoaded(Connection conn) throws SQLException {
+        if (loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            PreparedStatement pStmt = conn.prepareStatement("SELECT book_id, title, author, press, stock FROM book");
+            ResultSet rs = pStmt.executeQuery();
+            while (rs.next()) {
+                index(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5));
+            }
+            loaded = true;
+        } catch (SQLException e) {
+            clear();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
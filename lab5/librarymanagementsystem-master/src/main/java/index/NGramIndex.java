@@ -0,0 +1,207 @@
+package index;
+
+import primitives.IntList;
+import primitives.IntObjectMap;
+import primitives.LongObjectMap;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Trigram inverted index over one string column.
+ *
+ * Note:
+ *      (1) every value is split into overlapping grams of 3 code points and
+ *          the id of the row is appended to the posting list of each gram.
+ *      (2) a keyword can only occur in a value if all of its grams occur
+ *          in that value, so intersecting the posting lists of the keyword's
+ *          grams yields a superset of the rows matching LIKE '%keyword%'.
+ *          the caller must still verify the candidates.
+ *      (3) values and keywords are folded to lower case without accents,
+ *          which approximates the case & accent insensitive collations
+ *          used by the DBMS. keywords are only searchable if made of ASCII
+ *          and ideographs (e.g. Chinese), which the collations compare as
+ *          they are; other letters, like the accented ones, may be equal to
+ *          letters the folding does not map them to.
+ *      (4) this class is not thread-safe, see {@link BookSearchIndex}.
+ */
+public final class NGramIndex {
+
+    public static final int N = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    /* gram --> sorted ids of the rows containing the gram */
+    private final LongObjectMap<IntList> postings = new LongObjectMap<>();
+    /* id --> folded value, used to find the grams when a row is removed */
+    private final IntObjectMap<String> values = new IntObjectMap<>();
+
+    /**
+     * index a value, replacing the previous value of this id.
+     */
+    public void put(int id, String value) {
+        String folded = fold(value);
+        String old = values.put(id, folded);
+        if (folded.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            unpost(id, old);
+        }
+        for (long gram : grams(folded)) {
+            IntList p = postings.get(gram);
+            if (p == null) {
+                p = new IntList(4);
+                postings.put(gram, p);
+            }
+            add(p, id);
+        }
+    }
+
+    public void remove(int id) {
+        String old = values.remove(id);
+        if (old != null) {
+            unpost(id, old);
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        values.clear();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * find the rows that may contain the keyword.
+     *
+     * @return sorted candidate ids, or null if the keyword is too short
+     *         or contains characters the index can not reason about
+     *         (LIKE wildcards, non-ASCII letters but ideographs), so no
+     *         pruning is possible.
+     */
+    public int[] candidates(String keyword) {
+        if (!searchable(keyword)) {
+            return null;
+        }
+        long[] grams = grams(fold(keyword));
+        IntList[] lists = new IntList[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            lists[i] = postings.get(grams[i]);
+            if (lists[i] == null) { // some gram never occurs, nothing can match
+                return EMPTY;
+            }
+        }
+        // intersect from the shortest list so the working set only shrinks
+        Arrays.sort(lists, (x, y) -> Integer.compare(x.size(), y.size()));
+        int[] result = lists[0].toArray();
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i].elements(), lists[i].size());
+        }
+        return result;
+    }
+
+    /**
+     * intersect two sorted id arrays, null stands for "all ids".
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return intersect(a, b, b.length);
+    }
+
+    private static int[] intersect(int[] a, int[] b, int bSize) {
+        int[] out = new int[Math.min(a.length, bSize)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[k++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return k == out.length ? out : Arrays.copyOf(out, k);
+    }
+
+    private static boolean searchable(String keyword) {
+        if (keyword == null || keyword.codePointCount(0, keyword.length()) < N) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); ) {
+            int c = keyword.codePointAt(i);
+            if (c > 0x7f && !Character.isIdeographic(c) || c == '%' || c == '_' || c == '\\') {
+                return false;
+            }
+            i += Character.charCount(c);
+        }
+        return true;
+    }
+
+    static String fold(String value) {
+        String s = Normalizer.normalize(value, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /* distinct grams of a folded string, 3 code points of 21 bits each packed into a long */
+    private static long[] grams(String s) {
+        int[] cps = s.codePoints().toArray();
+        if (cps.length < N) {
+            return new long[0];
+        }
+        long[] grams = new long[cps.length - N + 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) cps[i] << 42) | ((long) cps[i + 1] << 21) | cps[i + 2];
+        }
+        Arrays.sort(grams);
+        int k = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[k++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, k);
+    }
+
+    private void unpost(int id, String folded) {
+        for (long gram : grams(folded)) {
+            IntList p = postings.get(gram);
+            int pos = p.binarySearch(id);
+            if (pos >= 0) {
+                p.removeAt(pos);
+            }
+            if (p.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /* keeps a posting list sorted, ids are usually appended in increasing order */
+    private static void add(IntList p, int id) {
+        if (p.isEmpty() || p.get(p.size() - 1) < id) {
+            p.add(id);
+            return;
+        }
+        int pos = p.binarySearch(id);
+        if (pos < 0) {
+            p.insert(-pos - 1, id);
+        }
+    }
+}
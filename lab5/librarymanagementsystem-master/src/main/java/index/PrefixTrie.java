@@ -0,0 +1,274 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix tree over the distinct values of one string column, used for type-ahead.
+ *
+ * Note:
+ *      (1) keys are folded like {@link NGramIndex}, so completion is
+ *          case & accent insensitive. spellings folding to the same key
+ *          share its node, which counts each of them and completes to the
+ *          one carried by the most rows.
+ *      (2) values are ranked by their weight, the sum of the weights of
+ *          the rows carrying them (e.g. their stock), then by the number
+ *          of rows. the owner keeps the weights current with {@link #weigh}.
+ *      (3) every node caches the best {@link #MAX_K} values below it.
+ *          a change clears the caches on its path only, they are rebuilt
+ *          from the children's caches on the next lookup, so a completion
+ *          costs O(prefix length) once the caches are warm.
+ *      (4) nodes left without rows nor children are pruned on remove, so
+ *          the trie only holds the values present.
+ *      (5) updates must be exclusive, lookups may run concurrently,
+ *          see {@link BookSearchIndex}.
+ */
+public final class PrefixTrie {
+
+    public static final int MAX_K = 10;
+
+    /* heavier values first, then the ones carried by more rows, then in lexicographic order */
+    private static final Comparator<Node> RANK = (x, y) -> {
+        if (x.weight != y.weight) {
+            return Long.compare(y.weight, x.weight);
+        }
+        if (x.count != y.count) {
+            return Integer.compare(y.count, x.count);
+        }
+        return x.value.compareTo(y.value);
+    };
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final Node root = new Node();
+
+    public void add(String value) {
+        add(value, 0);
+    }
+
+    /**
+     * adds a row carrying the value.
+     *
+     * @param weight the weight of the row
+     */
+    public void add(String value, long weight) {
+        Node node = walk(NGramIndex.fold(value));
+        node.addVariant(value);
+        node.weight += weight;
+    }
+
+    public void remove(String value) {
+        remove(value, 0);
+    }
+
+    /**
+     * removes a row carrying the value.
+     *
+     * @param weight the weight of the row, as last added or weighed
+     */
+    public void remove(String value, long weight) {
+        String key = NGramIndex.fold(value);
+        Node[] path = path(key);
+        if (path == null || !path[key.length()].removeVariant(value)) {
+            return;
+        }
+        Node node = path[key.length()];
+        node.weight = node.count == 0 ? 0 : node.weight - weight;
+        for (Node n : path) {
+            n.top = null;
+        }
+        for (int i = key.length(); i > 0 && path[i].count == 0 && path[i].children.length == 0; i--) {
+            path[i - 1].removeChild(key.charAt(i - 1)); // prune the node, it holds nothing any more
+        }
+    }
+
+    /**
+     * changes the weight of a row carrying the value, e.g. when its stock changes.
+     */
+    public void weigh(String value, long delta) {
+        String key = NGramIndex.fold(value);
+        Node[] path = path(key);
+        if (delta == 0 || path == null || path[key.length()].count == 0) {
+            return;
+        }
+        path[key.length()].weight += delta;
+        for (Node n : path) {
+            n.top = null;
+        }
+    }
+
+    public void clear() {
+        root.labels = new char[0];
+        root.children = NO_NODES;
+        root.count = 0;
+        root.weight = 0;
+        root.variants = null;
+        root.counts = null;
+        root.value = null;
+        root.top = null;
+    }
+
+    /**
+     * @return at most k values starting with the prefix, best first
+     */
+    public List<String> complete(String prefix, int k) {
+        String key = NGramIndex.fold(prefix);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        List<String> result = new ArrayList<>();
+        if (node == null) {
+            return result;
+        }
+        Node[] top = node.top();
+        for (int i = 0; i < top.length && i < k; i++) {
+            result.add(top[i].value);
+        }
+        return result;
+    }
+
+    /* the nodes from the root to the node of a key, or null if there is none */
+    private Node[] path(String key) {
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].child(key.charAt(i));
+            if (path[i + 1] == null) {
+                return null;
+            }
+        }
+        return path;
+    }
+
+    /* find or create the node of a key, clearing the cached completions along the path */
+    private Node walk(String key) {
+        Node node = root;
+        node.top = null;
+        for (int i = 0; i < key.length(); i++) {
+            Node next = node.child(key.charAt(i));
+            if (next == null) {
+                next = node.addChild(key.charAt(i));
+            }
+            node = next;
+            node.top = null;
+        }
+        return node;
+    }
+
+    private static final class Node {
+        /* sorted labels of the children */
+        char[] labels = new char[0];
+        Node[] children = NO_NODES;
+        /* the spelling of the key ending here carried by the most rows, and how many rows carry any */
+        String value;
+        int count;
+        /* the sum of the weights of the rows carrying the key */
+        long weight;
+        /* every spelling of the key, and how many rows carry each, null if none */
+        String[] variants;
+        int[] counts;
+        /* cached completions, null if stale */
+        volatile Node[] top;
+
+        Node child(char c) {
+            int pos = Arrays.binarySearch(labels, c);
+            return pos >= 0 ? children[pos] : null;
+        }
+
+        void addVariant(String spelling) {
+            count++;
+            int i = variants == null ? -1 : Arrays.asList(variants).indexOf(spelling);
+            if (i < 0) {
+                i = variants == null ? 0 : variants.length;
+                variants = variants == null ? new String[1] : Arrays.copyOf(variants, i + 1);
+                counts = counts == null ? new int[1] : Arrays.copyOf(counts, i + 1);
+                variants[i] = spelling;
+            }
+            counts[i]++;
+            pickValue();
+        }
+
+        /**
+         * @return false if no row carries this spelling
+         */
+        boolean removeVariant(String spelling) {
+            int i = variants == null ? -1 : Arrays.asList(variants).indexOf(spelling);
+            if (i < 0) {
+                return false;
+            }
+            count--;
+            if (--counts[i] == 0) {
+                int last = variants.length - 1;
+                variants[i] = variants[last];
+                counts[i] = counts[last];
+                variants = last == 0 ? null : Arrays.copyOf(variants, last);
+                counts = last == 0 ? null : Arrays.copyOf(counts, last);
+            }
+            pickValue();
+            return true;
+        }
+
+        /* the most popular spelling, the first in lexicographic order on a tie */
+        private void pickValue() {
+            value = null;
+            int best = 0;
+            for (int i = 0; variants != null && i < variants.length; i++) {
+                if (counts[i] > best || counts[i] == best && variants[i].compareTo(value) < 0) {
+                    value = variants[i];
+                    best = counts[i];
+                }
+            }
+        }
+
+        void removeChild(char c) {
+            int pos = Arrays.binarySearch(labels, c);
+            if (pos < 0) {
+                return;
+            }
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            System.arraycopy(labels, pos + 1, newLabels, pos, labels.length - pos - 1);
+            System.arraycopy(children, pos + 1, newChildren, pos, children.length - pos - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        Node addChild(char c) {
+            int pos = -Arrays.binarySearch(labels, c) - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newLabels[pos] = c;
+            newChildren[pos] = new Node();
+            System.arraycopy(labels, pos, newLabels, pos + 1, labels.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[pos];
+        }
+
+        Node[] top() {
+            Node[] cached = top;
+            if (cached != null) {
+                return cached;
+            }
+            List<Node> candidates = new ArrayList<>();
+            if (count > 0) {
+                candidates.add(this);
+            }
+            for (Node child : children) {
+                candidates.addAll(Arrays.asList(child.top()));
+            }
+            candidates.sort(RANK);
+            cached = candidates.subList(0, Math.min(MAX_K, candidates.size())).toArray(NO_NODES);
+            top = cached;
+            return cached;
+        }
+    }
+}
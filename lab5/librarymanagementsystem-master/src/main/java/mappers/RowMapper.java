@@ -0,0 +1,29 @@
+package mappers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the current row of a {@link ResultSet} to an object.
+ *
+ * Note that a mapper is bound to one result set, see {@link RowMappers},
+ * it reads columns by the ordinals resolved when it was bound.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    T map(ResultSet rs) throws SQLException;
+
+    /**
+     * @return the remaining rows of rs, mapped in order
+     */
+    default List<T> list(ResultSet rs) throws SQLException {
+        List<T> list = new ArrayList<>();
+        while (rs.next()) {
+            list.add(map(rs));
+        }
+        return list;
+    }
+}
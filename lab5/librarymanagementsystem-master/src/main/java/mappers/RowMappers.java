@@ -0,0 +1,101 @@
+package mappers;
+
+import entities.Book;
+import entities.Card;
+import entities.Prices;
+import queries.BorrowHistories;
+import utils.StringDictionary;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Row mappers of the query shapes of the library, book, borrow history
+ * item and card.
+ *
+ * Note:
+ *      (1) a mapper is bound to a result set once per statement: the
+ *          ordinals of its columns are resolved from the metadata by label,
+ *          then every row is read by index, so drivers do not search the
+ *          column names for every field of every row.
+ *      (2) low-cardinality columns go through a {@link StringDictionary},
+ *          price is read as a decimal of scale 2, see {@link Prices}.
+ */
+public final class RowMappers {
+
+    private RowMappers() {
+    }
+
+    public static RowMapper<Book> book(ResultSet rs, StringDictionary dictionary) throws SQLException {
+        int[] c = ordinals(rs, "book_id", "category", "title", "press", "publish_year", "author", "price", "stock");
+        final int bookId = c[0], category = c[1], title = c[2], press = c[3];
+        final int publishYear = c[4], author = c[5], price = c[6], stock = c[7];
+        return row -> {
+            Book book = new Book();
+            book.setBookId(row.getInt(bookId));
+            book.setCategory(dictionary.intern(row.getString(category)));
+            book.setTitle(row.getString(title));
+            book.setPress(dictionary.intern(row.getString(press)));
+            book.setPublishYear(row.getInt(publishYear));
+            book.setAuthor(dictionary.intern(row.getString(author)));
+            book.setPriceCents(Prices.toCents(row.getBigDecimal(price)));
+            book.setStock(row.getInt(stock));
+            return book;
+        };
+    }
+
+    public static RowMapper<BorrowHistories.Item> borrowItem(ResultSet rs, StringDictionary dictionary) throws SQLException {
+        int[] c = ordinals(rs, "card_id", "book_id", "category", "title", "press", "publish_year", "author",
+                "price", "borrow_time", "return_time");
+        final int cardId = c[0], bookId = c[1], category = c[2], title = c[3], press = c[4];
+        final int publishYear = c[5], author = c[6], price = c[7], borrowTime = c[8], returnTime = c[9];
+        return row -> {
+            BorrowHistories.Item item = new BorrowHistories.Item();
+            item.setCardId(row.getInt(cardId));
+            item.setBookId(row.getInt(bookId));
+            item.setCategory(dictionary.intern(row.getString(category)));
+            item.setTitle(row.getString(title));
+            item.setPress(dictionary.intern(row.getString(press)));
+            item.setPublishYear(row.getInt(publishYear));
+            item.setAuthor(dictionary.intern(row.getString(author)));
+            item.setPriceCents(Prices.toCents(row.getBigDecimal(price)));
+            item.setBorrowTime(row.getLong(borrowTime));
+            item.setReturnTime(row.getLong(returnTime));
+            return item;
+        };
+    }
+
+    public static RowMapper<Card> card(ResultSet rs, StringDictionary dictionary) throws SQLException {
+        int[] c = ordinals(rs, "card_id", "name", "department", "type");
+        final int cardId = c[0], name = c[1], department = c[2], type = c[3];
+        return row -> {
+            Card card = new Card();
+            card.setCardId(row.getInt(cardId));
+            card.setName(row.getString(name));
+            card.setDepartment(dictionary.intern(row.getString(department)));
+            card.setType(Card.CardType.values(row.getString(type)));
+            return card;
+        };
+    }
+
+    /**
+     * @return the 1-based ordinals of the labels in the columns of rs
+     */
+    static int[] ordinals(ResultSet rs, String... labels) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int n = meta.getColumnCount();
+        int[] ordinals = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            for (int column = 1; column <= n && ordinals[i] == 0; column++) {
+                if (labels[i].equalsIgnoreCase(meta.getColumnLabel(column))) {
+                    ordinals[i] = column;
+                }
+            }
+            if (ordinals[i] == 0) {
+                throw new SQLException("Column '" + labels[i] + "' not found");
+            }
+        }
+        return ordinals;
+    }
+}
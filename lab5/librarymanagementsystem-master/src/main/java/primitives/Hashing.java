@@ -0,0 +1,34 @@
+package primitives;
+
+/* hash spreading and table sizing shared by the open addressing tables */
+final class Hashing {
+
+    static final int MIN_CAPACITY = 8;
+
+    private Hashing() {
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /* the smallest power of two keeping n keys at most half full */
+    static int capacityFor(int n) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < n * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /* whether the key at slot j, whose home is k, may move to the hole at slot i */
+    static boolean canShift(int i, int j, int k) {
+        return i <= j ? (k <= i || k > j) : (k <= i && k > j);
+    }
+}
@@ -0,0 +1,143 @@
+package primitives;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from int keys to int values, with open addressing
+ * and linear probing, so neither keys nor values are boxed.
+ */
+public final class IntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public IntIntMap() {
+        this(Hashing.MIN_CAPACITY);
+    }
+
+    public IntIntMap(int expected) {
+        allocate(Hashing.capacityFor(expected));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the value of the key, or defaultValue if there is none
+     */
+    public int get(int key, int defaultValue) {
+        for (int i = Hashing.mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        for (int i = Hashing.mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(int key, int value) {
+        int i = Hashing.mix(key) & mask;
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        insertAt(i, key, value);
+    }
+
+    /**
+     * Adds delta to the value of the key, an absent key counts as 0.
+     * @return the new value
+     */
+    public int addTo(int key, int delta) {
+        int i = Hashing.mix(key) & mask;
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] += delta;
+            }
+        }
+        insertAt(i, key, delta);
+        return delta;
+    }
+
+    /**
+     * @return whether the key was there
+     */
+    public boolean remove(int key) {
+        for (int i = Hashing.mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                shiftBack(i);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void insertAt(int i, int key, int value) {
+        keys[i] = key;
+        values[i] = value;
+        used[i] = true;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    private void shiftBack(int i) {
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            if (Hashing.canShift(i, j, Hashing.mix(keys[j]) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        used[i] = false;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = Hashing.mix(oldKeys[j]) & mask;
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                used[i] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package primitives;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, without boxing.
+ */
+public final class IntList {
+
+    private int[] elements;
+    private int size;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(int capacity) {
+        elements = new int[Math.max(1, capacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return elements[i];
+    }
+
+    public void set(int i, int value) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        elements[i] = value;
+    }
+
+    public void add(int value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = value;
+    }
+
+    public void insert(int i, int value) {
+        if (i > size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        System.arraycopy(elements, i, elements, i + 1, size - i);
+        elements[i] = value;
+        size++;
+    }
+
+    public int removeAt(int i) {
+        int value = get(i);
+        System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+        size--;
+        return value;
+    }
+
+    /**
+     * @return the index of the value in a sorted list, or (-(insertion point) - 1)
+     */
+    public int binarySearch(int value) {
+        return Arrays.binarySearch(elements, 0, size, value);
+    }
+
+    public void sort() {
+        Arrays.sort(elements, 0, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the backing array, only the first size() elements are valid
+     */
+    public int[] elements() {
+        return elements;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
@@ -0,0 +1,115 @@
+package primitives;
+
+import java.util.Arrays;
+
+/**
+ * A hash set of longs, with open addressing and linear probing.
+ *
+ * Note that pairs of ints, like (card_id, book_id), are kept as one long
+ * made by {@link #pair}.
+ */
+public final class LongSet {
+
+    private long[] keys;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongSet() {
+        this(Hashing.MIN_CAPACITY);
+    }
+
+    public LongSet(int expected) {
+        allocate(Hashing.capacityFor(expected));
+    }
+
+    public static long pair(int high, int low) {
+        return ((long) high << 32) | (low & 0xffffffffL);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        for (int i = Hashing.mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the key was not there before
+     */
+    public boolean add(long key) {
+        int i = Hashing.mix(key) & mask;
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return false;
+            }
+        }
+        keys[i] = key;
+        used[i] = true;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the key was there
+     */
+    public boolean remove(long key) {
+        for (int i = Hashing.mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                shiftBack(i);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void shiftBack(int i) {
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            if (Hashing.canShift(i, j, Hashing.mix(keys[j]) & mask)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        used[i] = false;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = Hashing.mix(oldKeys[j]) & mask;
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                used[i] = true;
+            }
+        }
+    }
+}
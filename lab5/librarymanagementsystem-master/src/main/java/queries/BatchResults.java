@@ -0,0 +1,32 @@
+package queries;
+
+import java.util.List;
+
+public class BatchResults {
+
+    /* whether the changes of the calls have been committed */
+    private boolean committed;
+    /* the result of every call that was run, in order */
+    private List<ApiResult> results;
+
+    public BatchResults(boolean committed, List<ApiResult> results) {
+        this.committed = committed;
+        this.results = results;
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public void setCommitted(boolean committed) {
+        this.committed = committed;
+    }
+
+    public List<ApiResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<ApiResult> results) {
+        this.results = results;
+    }
+}
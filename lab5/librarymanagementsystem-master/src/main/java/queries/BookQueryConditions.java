@@ -1,6 +1,7 @@
 package queries;
 
 import entities.Book;
+import entities.Prices;
 
 /**
  * Note: (1) all non-null attributes should be used as query
@@ -10,6 +11,14 @@ import entities.Book;
  *       eg: minA=x, maxA=y ==> x <= A <= y
  *           minA=null, maxA=y ==> A <= y
  *           minA=x, maxA=null ==> A >= x
+ *       (3) if maxEditDistance is not null, title and author match
+ *       the books whose whole title/author is within maxEditDistance
+ *       edits of the condition (case insensitive), instead of fuzzy
+ *       matching. eg: author="Fubiki", maxEditDistance=1 finds "Fubuki"
+ *       (4) if limit is not null, only the first limit books
+ *       of the sorted results are returned.
+ *       (5) price bounds are kept in cents, bounds given as
+ *       doubles are rounded to the nearest cent.
  * */
 public class BookQueryConditions {
     /* Note: use exact matching */
@@ -22,12 +31,16 @@ public class BookQueryConditions {
     private Integer maxPublishYear;
     /* Note: use fuzzy matching */
     private String author;
-    private Double minPrice;
-    private Double maxPrice;
+    private Long minPrice; // in cents
+    private Long maxPrice; // in cents
+    /* Note: null means title & author use fuzzy matching */
+    private Integer maxEditDistance;
     /* sort by which field */
     private Book.SortColumn sortBy;
     /* default sort by PK */
     private SortOrder sortOrder;
+    /* max number of results, null means no limit */
+    private Integer limit;
 
     public BookQueryConditions() {
         this.category = null;
@@ -38,8 +51,10 @@ public class BookQueryConditions {
         this.author = null;
         this.minPrice = null;
         this.maxPrice = null;
+        this.maxEditDistance = null;
         sortBy = Book.SortColumn.BOOK_ID;
         sortOrder = SortOrder.ASC;
+        limit = null;
     }
 
     public String getCategory() {
@@ -91,21 +106,45 @@ public class BookQueryConditions {
     }
 
     public Double getMinPrice() {
-        return minPrice;
+        return minPrice == null ? null : Prices.toDouble(minPrice);
     }
 
     public void setMinPrice(Double minPrice) {
-        this.minPrice = minPrice;
+        this.minPrice = minPrice == null ? null : Prices.toCents(minPrice);
     }
 
     public Double getMaxPrice() {
-        return maxPrice;
+        return maxPrice == null ? null : Prices.toDouble(maxPrice);
     }
 
     public void setMaxPrice(Double maxPrice) {
+        this.maxPrice = maxPrice == null ? null : Prices.toCents(maxPrice);
+    }
+
+    public Long getMinPriceCents() {
+        return minPrice;
+    }
+
+    public void setMinPriceCents(Long minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public Long getMaxPriceCents() {
+        return maxPrice;
+    }
+
+    public void setMaxPriceCents(Long maxPrice) {
         this.maxPrice = maxPrice;
     }
 
+    public Integer getMaxEditDistance() {
+        return maxEditDistance;
+    }
+
+    public void setMaxEditDistance(Integer maxEditDistance) {
+        this.maxEditDistance = maxEditDistance;
+    }
+
     public Book.SortColumn getSortBy() {
         return sortBy;
     }
@@ -121,4 +160,12 @@ public class BookQueryConditions {
     public void setSortOrder(SortOrder sortOrder) {
         this.sortOrder = sortOrder;
     }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
 }
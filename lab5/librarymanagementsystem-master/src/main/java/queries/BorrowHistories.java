@@ -1,7 +1,9 @@
 package queries;
 
+import com.alibaba.fastjson2.annotation.JSONField;
 import entities.Book;
 import entities.Borrow;
+import entities.Prices;
 
 import java.util.List;
 
@@ -15,7 +17,7 @@ public class BorrowHistories {
         private String press;
         private int publishYear;
         private String author;
-        private double price;
+        private long price; // in cents
         private long borrowTime;
         private long returnTime;
 
@@ -30,7 +32,7 @@ public class BorrowHistories {
             this.press = book.getPress();
             this.publishYear = book.getPublishYear();
             this.author = book.getAuthor();
-            this.price = book.getPrice();
+            this.price = book.getPriceCents();
             this.borrowTime = borrow.getBorrowTime();
             this.returnTime = borrow.getReturnTime();
         }
@@ -44,7 +46,7 @@ public class BorrowHistories {
                     ", press='" + press + '\'' +
                     ", publishYear=" + publishYear +
                     ", author='" + author + '\'' +
-                    ", price=" + price +
+                    ", price=" + Prices.format(price) +
                     ", borrowTime=" + borrowTime +
                     ", returnTime=" + returnTime +
                     '}';
@@ -107,10 +109,20 @@ public class BorrowHistories {
         }
 
         public double getPrice() {
-            return price;
+            return Prices.toDouble(price);
         }
 
         public void setPrice(double price) {
+            this.price = Prices.toCents(price);
+        }
+
+        @JSONField(serialize = false, deserialize = false)
+        public long getPriceCents() {
+            return price;
+        }
+
+        @JSONField(serialize = false, deserialize = false)
+        public void setPriceCents(long price) {
             this.price = price;
         }
 
@@ -0,0 +1,91 @@
+package queries;
+
+import entities.Book;
+import entities.Card;
+
+import java.util.List;
+
+public class SyncResults {
+
+    /* the sequence number to sync from next time */
+    private long seq;
+    /* whether the mirror must read everything again, then sync from seq */
+    private boolean reset;
+    /* whether more changes follow seq */
+    private boolean more;
+    /* books inserted or updated, as they are now */
+    private List<Book> books;
+    /* cards inserted or updated, as they are now */
+    private List<Card> cards;
+    /* ids of the books removed */
+    private int[] removedBooks;
+    /* ids of the cards removed */
+    private int[] removedCards;
+
+    public SyncResults(long seq, boolean reset, boolean more, List<Book> books, List<Card> cards,
+                       int[] removedBooks, int[] removedCards) {
+        this.seq = seq;
+        this.reset = reset;
+        this.more = more;
+        this.books = books;
+        this.cards = cards;
+        this.removedBooks = removedBooks;
+        this.removedCards = removedCards;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public void setBooks(List<Book> books) {
+        this.books = books;
+    }
+
+    public List<Card> getCards() {
+        return cards;
+    }
+
+    public void setCards(List<Card> cards) {
+        this.cards = cards;
+    }
+
+    public int[] getRemovedBooks() {
+        return removedBooks;
+    }
+
+    public void setRemovedBooks(int[] removedBooks) {
+        this.removedBooks = removedBooks;
+    }
+
+    public int[] getRemovedCards() {
+        return removedCards;
+    }
+
+    public void setRemovedCards(int[] removedCards) {
+        this.removedCards = removedCards;
+    }
+}
@@ -0,0 +1,77 @@
+package utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import entities.Book;
+import entities.Prices;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A committed change pushed to the subscribers of the {@link ChangeFeed}.
+ * its data is serialized once, when it is published, and shared by all of them:
+ *      stock   {"bookId":1,"stock":3}
+ *      borrow  {"cardId":2,"bookId":1,"time":1717000000000}
+ *      return  {"cardId":2,"bookId":1,"time":1717000000000}
+ *      book    {"bookId":1,"category":"Nature","title":"...","press":"...","publishYear":2000,"author":"...","price":19.99}
+ *      reset   {}, some changes were dropped, read the state again
+ */
+public final class ChangeEvent {
+
+    public static final ChangeEvent RESET = new ChangeEvent("reset", "reset", new JSONObject());
+
+    private final String type;
+    /* events of the same key supersede each other */
+    private final String key;
+    private final byte[] data;
+
+    private ChangeEvent(String type, String key, JSONObject data) {
+        this.type = type;
+        this.key = key;
+        this.data = JSON.toJSONBytes(data);
+    }
+
+    public static ChangeEvent stock(int bookId, int stock) {
+        return new ChangeEvent("stock", "stock:" + bookId, JSONObject.of("bookId", bookId, "stock", stock));
+    }
+
+    public static ChangeEvent borrow(int cardId, int bookId, long time) {
+        return new ChangeEvent("borrow", "borrow:" + cardId + ":" + bookId,
+                JSONObject.of("cardId", cardId, "bookId", bookId, "time", time));
+    }
+
+    public static ChangeEvent returned(int cardId, int bookId, long time) {
+        return new ChangeEvent("return", "return:" + cardId + ":" + bookId,
+                JSONObject.of("cardId", cardId, "bookId", bookId, "time", time));
+    }
+
+    /* the information of a book, its stock travels in stock events */
+    public static ChangeEvent book(Book book) {
+        JSONObject data = JSONObject.of("bookId", book.getBookId(), "category", book.getCategory(),
+                "title", book.getTitle(), "press", book.getPress());
+        data.put("publishYear", book.getPublishYear());
+        data.put("author", book.getAuthor());
+        data.put("price", Prices.toDecimal(book.getPriceCents()));
+        return new ChangeEvent("book", "book:" + book.getBookId(), data);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the UTF-8 JSON of the event, not to be modified
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans committed changes out to subscribers, such as the screens on /events.
+ *
+ * Note:
+ *      (1) publishing never waits for a subscriber, each one has a bounded
+ *          buffer of pending events and is only told that it has some.
+ *      (2) a subscriber that falls behind has its pending events coalesced,
+ *          a newer event replaces a pending one of the same key, e.g. only
+ *          the latest stock of a book is kept. events keep the order they
+ *          were last published in.
+ *      (3) if the buffer is full of distinct keys anyway, its events are
+ *          dropped and the subscriber gets a single {@link ChangeEvent#RESET}.
+ *      (4) changes are published after commit, see {@link ResourceVersion}.
+ */
+public final class ChangeFeed {
+
+    public static final ChangeFeed CHANGES = new ChangeFeed();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public void publish(ChangeEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * @param capacity the most events held for the subscriber
+     * @param listener run, on the publishing thread, when events become pending
+     *                 while none were. it must not block.
+     */
+    public Subscription subscribe(int capacity, Runnable listener) {
+        Subscription subscription = new Subscription(capacity, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final int capacity;
+        private final Runnable listener;
+        private final LinkedHashMap<String, ChangeEvent> pending = new LinkedHashMap<>();
+        private boolean overflowed;
+
+        private Subscription(int capacity, Runnable listener) {
+            this.capacity = capacity;
+            this.listener = listener;
+        }
+
+        private void offer(ChangeEvent event) {
+            boolean wasEmpty;
+            synchronized (this) {
+                wasEmpty = pending.isEmpty() && !overflowed;
+                if (pending.remove(event.getKey()) == null && pending.size() >= capacity) {
+                    pending.clear();
+                    overflowed = true;
+                    return;
+                }
+                if (!overflowed) {
+                    pending.put(event.getKey(), event);
+                }
+            }
+            if (wasEmpty) {
+                listener.run();
+            }
+        }
+
+        public synchronized boolean hasPending() {
+            return overflowed || !pending.isEmpty();
+        }
+
+        /**
+         * @return the pending events in order, emptied
+         */
+        public List<ChangeEvent> drain() {
+            synchronized (this) {
+                if (overflowed) {
+                    overflowed = false;
+                    pending.clear();
+                    return Collections.singletonList(ChangeEvent.RESET);
+                }
+                if (pending.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                List<ChangeEvent> events = new ArrayList<>(pending.values());
+                pending.clear();
+                return events;
+            }
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package utils;
+
+import primitives.IntIntMap;
+import primitives.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Numbers every committed change of a book or a card, so a mirror of the
+ * catalog only fetches the rows changed since the last number it saw.
+ *
+ * Note:
+ *      (1) the log keeps one entry per row, its latest change: an upsert, or
+ *          a tombstone once the row is removed. an older entry of the row is
+ *          marked dead and squeezed out when dead entries are the majority,
+ *          so the log grows with the rows changed, not with the changes.
+ *      (2) tombstones are kept up to library.sync.tombstones of them, the
+ *          oldest are dropped beyond that. a mirror behind a dropped one, or
+ *          behind {@link #clear()}, is told to start over.
+ *      (3) sequence numbers start at the boot time in microseconds, so they
+ *          keep increasing across restarts as long as there are fewer than
+ *          a thousand changes per millisecond. changes from before the boot
+ *          are not known, mirrors behind the first number start over too.
+ *      (4) only changes made through this process are counted,
+ *          see {@link ResourceVersion}.
+ */
+public final class ChangeLog {
+
+    public static final ChangeLog CATALOG = new ChangeLog(Integer.getInteger("library.sync.tombstones", 100000));
+
+    public enum Kind {
+        BOOK, CARD
+    }
+
+    private static final int DEAD = -1;
+
+    private final int maxTombstones;
+    /* the entries in order of their sequence numbers */
+    private long[] seqs = new long[1024];
+    private int[] ids = new int[1024];
+    /* Kind ordinal * 2, + 1 for a tombstone, or DEAD */
+    private int[] ops = new int[1024];
+    private int size;
+    private int dead;
+    private int tombstones;
+    /* the entry of each row, by its id */
+    private final IntIntMap[] latest = {new IntIntMap(), new IntIntMap()};
+    private long seq;
+    /* mirrors behind this number have missed something */
+    private long horizon;
+
+    public ChangeLog(int maxTombstones) {
+        this.maxTombstones = maxTombstones;
+        this.seq = System.currentTimeMillis() * 1000;
+        this.horizon = seq;
+    }
+
+    /**
+     * records the insert or update of a row.
+     *
+     * @return the sequence number of the change
+     */
+    public synchronized long changed(Kind kind, int id) {
+        return append(kind, id, false);
+    }
+
+    /**
+     * records the removal of a row.
+     *
+     * @return the sequence number of the change
+     */
+    public synchronized long removed(Kind kind, int id) {
+        long change = append(kind, id, true);
+        if (tombstones > maxTombstones) {
+            dropTombstones(tombstones - maxTombstones * 3 / 4);
+        }
+        return change;
+    }
+
+    /**
+     * forgets every change, after the tables have been dropped, all mirrors start over.
+     */
+    public synchronized void clear() {
+        size = dead = tombstones = 0;
+        for (IntIntMap map : latest) {
+            map.clear();
+        }
+        horizon = ++seq;
+    }
+
+    /**
+     * @return the sequence number of the latest change
+     */
+    public synchronized long seq() {
+        return seq;
+    }
+
+    /**
+     * @param limit the most rows to return, the rest follow from the returned number
+     * @return the rows changed after since, one entry per row
+     */
+    public synchronized Changes since(long since, int limit) {
+        Changes changes = new Changes();
+        changes.seq = seq;
+        if (since < horizon || since > seq) { // or a number of another run
+            changes.reset = true;
+            return changes;
+        }
+        int i = Arrays.binarySearch(seqs, 0, size, since);
+        i = i < 0 ? -i - 1 : i + 1;
+        int count = 0;
+        for (; i < size; i++) {
+            if (ops[i] == DEAD) {
+                continue;
+            }
+            if (count == limit) {
+                changes.more = true;
+                break;
+            }
+            Kind kind = Kind.values()[ops[i] >> 1];
+            boolean removed = (ops[i] & 1) != 0;
+            if (kind == Kind.BOOK) {
+                (removed ? changes.removedBooks : changes.books).add(ids[i]);
+            } else {
+                (removed ? changes.removedCards : changes.cards).add(ids[i]);
+            }
+            changes.seq = seqs[i];
+            count++;
+        }
+        return changes;
+    }
+
+    private long append(Kind kind, int id, boolean removed) {
+        int previous = latest[kind.ordinal()].get(id, DEAD);
+        if (previous != DEAD) {
+            kill(previous);
+        }
+        if (size == seqs.length) {
+            if (dead > size / 2) {
+                compact();
+            } else {
+                seqs = Arrays.copyOf(seqs, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                ops = Arrays.copyOf(ops, size * 2);
+            }
+        }
+        seqs[size] = ++seq;
+        ids[size] = id;
+        ops[size] = kind.ordinal() << 1 | (removed ? 1 : 0);
+        latest[kind.ordinal()].put(id, size);
+        size++;
+        if (removed) {
+            tombstones++;
+        }
+        return seq;
+    }
+
+    private void kill(int i) {
+        if ((ops[i] & 1) != 0) {
+            tombstones--;
+        }
+        ops[i] = DEAD;
+        dead++;
+    }
+
+    /* drops the oldest tombstones, raising the horizon past them */
+    private void dropTombstones(int count) {
+        for (int i = 0; i < size && count > 0; i++) {
+            if (ops[i] != DEAD && (ops[i] & 1) != 0) {
+                latest[ops[i] >> 1].remove(ids[i]);
+                horizon = seqs[i];
+                kill(i);
+                count--;
+            }
+        }
+        compact();
+    }
+
+    /* squeezes the dead entries out, in place */
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == DEAD) {
+                continue;
+            }
+            seqs[live] = seqs[i];
+            ids[live] = ids[i];
+            ops[live] = ops[i];
+            latest[ops[i] >> 1].put(ids[i], live);
+            live++;
+        }
+        size = live;
+        dead = 0;
+    }
+
+    /**
+     * The ids of the rows changed after a sequence number.
+     */
+    public static final class Changes {
+        /* the number to ask from next time */
+        public long seq;
+        /* whether the mirror has missed changes, and must read everything again */
+        public boolean reset;
+        /* whether more changes follow seq */
+        public boolean more;
+        public final IntList books = new IntList();
+        public final IntList cards = new IntList();
+        public final IntList removedBooks = new IntList();
+        public final IntList removedCards = new IntList();
+    }
+}
@@ -16,6 +16,8 @@ public final class ConnectConfig {
     private final String password;
     private final String db;
     private final DatabaseType type;
+    private final boolean fullText;
+    private final boolean searchIndex;
 
     public ConnectConfig() throws FileNotFoundException, NullPointerException, ClassNotFoundException {
         URL res = ConnectConfig.class.getClassLoader().getResource("utils/application.yaml");
@@ -32,6 +34,8 @@ public final class ConnectConfig {
         password = (String)objectMap.getOrDefault("password", "");
         db = (String)objectMap.getOrDefault("db", "library");
         type = DatabaseType.instance((String)objectMap.getOrDefault("type", "mysql"));
+        fullText = (Boolean)objectMap.getOrDefault("fulltext", false);
+        searchIndex = (Boolean)objectMap.getOrDefault("searchindex", false);
         /* load database connect driver */
         Class.forName(type.getDriverName());
     }
@@ -44,6 +48,8 @@ public final class ConnectConfig {
                 ", password='" + password + '\'' +
                 ", db='" + db + '\'' +
                 ", type='" + type.toString() + '\'' +
+                ", fulltext=" + fullText +
+                ", searchindex=" + searchIndex +
                 '}';
     }
 
@@ -70,4 +76,12 @@ public final class ConnectConfig {
     public DatabaseType getType() {
         return type;
     }
+
+    public boolean isFullText() {
+        return fullText;
+    }
+
+    public boolean isSearchIndex() {
+        return searchIndex;
+    }
 }
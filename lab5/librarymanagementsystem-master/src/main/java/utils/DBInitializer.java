@@ -2,6 +2,8 @@ package utils;
 
 public interface DBInitializer {
 
+    int BOOK_FULL_TEXT_COLUMNS = 3;
+
     String sqlDropBook();
     String sqlDropCard();
     String sqlDropBorrow();
@@ -9,4 +11,19 @@ public interface DBInitializer {
     String sqlCreateCard();
     String sqlCreateBorrow();
 
+    /* full-text search on book.title, book.author & book.press */
+    String[] sqlCreateBookFullText();
+    /* the number of full-text indexed columns of book, BOOK_FULL_TEXT_COLUMNS once
+       sqlCreateBookFullText() has run, or null if there is no full-text search */
+    String sqlCountBookFullText();
+    /* full-text predicate on a column, with one parameter bound by fullTextTerm(),
+       only asked for once fullTextTerm() has returned a term */
+    String sqlFullTextMatch(String column);
+    /* full-text search term for a fuzzy keyword, or null if the full-text
+       index can not find every row matching LIKE '%keyword%' */
+    String fullTextTerm(String keyword);
+
+    /* keep only the first n rows of a "SELECT ..." query */
+    String sqlLimit(String query, int n);
+
 }
@@ -2,12 +2,16 @@ package utils;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 public class DatabaseConnector {
 
     private final ConnectConfig conf;
     private Connection conn;
+    /* whether the full-text indexes of book exist, so queries may use them */
+    private volatile boolean fullTextReady;
 
     public DatabaseConnector(ConnectConfig conf) {
         this.conf = conf;
@@ -23,6 +27,9 @@ public class DatabaseConnector {
             if (conn != null) {
                 /* Note: you need to connect & release trx explicitly */
                 conn.setAutoCommit(false);
+                if (conf.isFullText()) {
+                    prepareFullText();
+                }
                 return true;
             }
         } catch (Exception e) {
@@ -45,6 +52,53 @@ public class DatabaseConnector {
         return false;
     }
 
+    /**
+     * creates the full-text indexes of book if it has none yet, so an existing
+     * schema can be queried with them as well as one made by resetDatabase.
+     */
+    private void prepareFullText() {
+        DBInitializer initializer = conf.getType().getDbInitializer();
+        String count_sql = initializer.sqlCountBookFullText();
+        if (count_sql == null) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            int count = count(stmt, count_sql);
+            if (count == 0) {
+                for (String sql : initializer.sqlCreateBookFullText()) {
+                    stmt.execute(sql);
+                }
+                count = count(stmt, count_sql);
+            }
+            conn.commit();
+            fullTextReady = count == DBInitializer.BOOK_FULL_TEXT_COLUMNS;
+            if (!fullTextReady) {
+                System.out.println("Full-text indexes of book are incomplete, searching without them");
+            }
+        } catch (SQLException e) {
+            // e.g. table book does not exist yet, resetDatabase creates it with its indexes
+            System.out.println("Full-text indexes of book are not available: " + e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static int count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public boolean isFullTextReady() {
+        return fullTextReady;
+    }
+
+    public void setFullTextReady(boolean fullTextReady) {
+        this.fullTextReady = fullTextReady;
+    }
+
     public Connection getConn() {
         return conn;
     }
@@ -23,10 +23,15 @@ public enum DatabaseType {
     public String url(String host, String port, String db) {
         switch (this) {
             case SQLSERVER:
-                return String.format("jdbc:sqlserver://%s:%s;DatabaseName=%s;encrypt=false", host, port, db);
+                // adaptive response buffering streams large results
+                return String.format("jdbc:sqlserver://%s:%s;DatabaseName=%s;encrypt=false;responseBuffering=adaptive", host, port, db);
             case MYSQL:
+                // statements with a fetch size read through a server side cursor instead of buffering all rows,
+                // batched inserts are sent as multi-row inserts
+                return String.format("jdbc:%s://%s:%s/%s?useCursorFetch=true&rewriteBatchedStatements=true", typeName, host, port, db);
             case POSTGRES:
-                return String.format("jdbc:%s://%s:%s/%s", typeName, host, port, db);
+                // a fetch size already streams, as auto commit is off
+                return String.format("jdbc:%s://%s:%s/%s?reWriteBatchedInserts=true", typeName, host, port, db);
         }
         return null;
     }
@@ -58,4 +58,47 @@ public class MysqlInitializer implements DBInitializer {
                 "  foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade\n" +
                 ") engine=innodb charset=utf8mb4;";
     }
+
+    @Override
+    public String sqlLimit(String query, int n) {
+        return query + " LIMIT " + n;
+    }
+
+    @Override
+    public String[] sqlCreateBookFullText() {
+        return new String[] {
+                // the ngram parser drops every token containing a stopword, keep them all
+                "set session innodb_ft_enable_stopword = off;",
+                "create fulltext index `ft_book_title` on `book` (`title`) with parser ngram;",
+                "create fulltext index `ft_book_author` on `book` (`author`) with parser ngram;",
+                "create fulltext index `ft_book_press` on `book` (`press`) with parser ngram;"
+        };
+    }
+
+    @Override
+    public String sqlCountBookFullText() {
+        return "select count(*) from information_schema.statistics where table_schema = database() " +
+                "and table_name = 'book' and index_type = 'FULLTEXT';";
+    }
+
+    @Override
+    public String sqlFullTextMatch(String column) {
+        return "match (`" + column + "`) against (? in boolean mode)";
+    }
+
+    @Override
+    public String fullTextTerm(String keyword) {
+        // a phrase of ngrams matches every value containing the keyword, as long as
+        // the keyword is not shorter than ngram_token_size (2 by default) and has no
+        // separators or punctuation that the ngram parser would skip
+        if (keyword.length() < 2) {
+            return null;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (!Character.isLetterOrDigit(keyword.charAt(i))) {
+                return null;
+            }
+        }
+        return "\"" + keyword + "\"";
+    }
 }
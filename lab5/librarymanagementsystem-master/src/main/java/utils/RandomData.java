@@ -1,6 +1,7 @@
 package utils;
 
 import entities.Book;
+import entities.Prices;
 import org.apache.commons.lang3.RandomUtils;
 
 import java.util.Arrays;
@@ -50,8 +51,11 @@ public final class RandomData {
     }
 
     public static double randomPrice() {
-        double v = RandomUtils.nextDouble(0.1, 233.3);
-        return Double.parseDouble(String.format("%.2f", v));
+        return Prices.toDouble(randomPriceCents());
+    }
+
+    public static long randomPriceCents() {
+        return RandomUtils.nextLong(10, 23330);
     }
 
     public static int randomStock() {
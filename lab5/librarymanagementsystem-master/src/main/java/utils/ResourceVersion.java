@@ -0,0 +1,29 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters of the resource families the server hands out,
+ * bumped after every committed change to them.
+ *
+ * Note:
+ *      (1) a reader takes the version before it reads, so a change committed
+ *          meanwhile may end up tagged with the older version. that costs one
+ *          more full response later, but never serves stale data.
+ *      (2) borrow histories show the books, so changing or removing a book
+ *          bumps BORROW as well, as does removing a card.
+ *      (3) only changes made through this process are counted.
+ */
+public enum ResourceVersion {
+    CARD, BOOK, BORROW;
+
+    private final AtomicLong version = new AtomicLong();
+
+    public long get() {
+        return version.get();
+    }
+
+    public void bump() {
+        version.incrementAndGet();
+    }
+}
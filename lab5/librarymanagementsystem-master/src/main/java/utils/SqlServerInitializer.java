@@ -58,4 +58,33 @@ public class SqlServerInitializer implements DBInitializer {
                 "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
                 ");";
     }
+
+    @Override
+    public String sqlLimit(String query, int n) {
+        return "SELECT TOP (" + n + ")" + query.substring("SELECT".length());
+    }
+
+    @Override
+    public String[] sqlCreateBookFullText() {
+        return new String[0]; // nothing would read it, see fullTextTerm
+    }
+
+    @Override
+    public String sqlCountBookFullText() {
+        return null; // see fullTextTerm
+    }
+
+    @Override
+    public String sqlFullTextMatch(String column) {
+        throw new UnsupportedOperationException("no full-text search on SQL Server, see fullTextTerm");
+    }
+
+    @Override
+    public String fullTextTerm(String keyword) {
+        // a full-text index would be read with CONTAINS, which only matches whole words
+        // or word prefixes ("kw*"), so it would miss keywords in the middle of a word,
+        // e.g. "base" in "Database". it is populated asynchronously as well, so there is
+        // no full-text index on SQL Server and LIKE stays the only predicate.
+        return null;
+    }
 }
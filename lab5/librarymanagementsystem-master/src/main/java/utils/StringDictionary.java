@@ -0,0 +1,107 @@
+package utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded dictionary canonicalizing low-cardinality attributes, like
+ * category, press, author and department.
+ *
+ * Note:
+ *      (1) hits are lock-free reads of a ConcurrentHashMap, only misses
+ *          synchronize, so a small vocabulary costs one lookup per row
+ *          and every row read shares the same String instances.
+ *      (2) the dictionary holds at most capacity strings, when it is full
+ *          a CLOCK sweep evicts a string that was not read since the hand
+ *          last passed it. high-cardinality data thus degrades into misses
+ *          instead of unbounded memory.
+ */
+public final class StringDictionary {
+
+    /* shared by the library implementations, sized by "library.dictionary.capacity" */
+    public static final StringDictionary ATTRIBUTES =
+            new StringDictionary(Integer.getInteger("library.dictionary.capacity", 4096));
+
+    private static final class Entry {
+        final String value;
+        volatile boolean referenced;
+
+        Entry(String value) {
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final AtomicReferenceArray<Entry> slots;
+    private int size; // slots handed out, guarded by this
+    private int hand; // guarded by this
+    private long evictions; // guarded by this
+
+    public StringDictionary(int capacity) {
+        if (capacity < 1 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity must be within [1, 2^24]");
+        }
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @return the canonical instance equal to value, null for null
+     */
+    public String intern(String value) {
+        return value == null ? null : entry(value).value;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private Entry entry(String value) {
+        Entry e = entries.get(value);
+        if (e == null) {
+            return add(value);
+        }
+        if (!e.referenced) { // avoid writing a shared line on every hit
+            e.referenced = true;
+        }
+        return e;
+    }
+
+    private synchronized Entry add(String value) {
+        Entry e = entries.get(value);
+        if (e != null) {
+            return e;
+        }
+        int slot = size < capacity ? size++ : evict();
+        e = new Entry(value);
+        slots.set(slot, e);
+        entries.put(value, e);
+        return e;
+    }
+
+    /* CLOCK, gives every referenced string a second chance */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+            Entry e = slots.get(slot);
+            if (e.referenced) {
+                e.referenced = false;
+            } else {
+                entries.remove(e.value, e);
+                evictions++;
+                return slot;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import actions.BookStream;
+import entities.Book;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BookStreamTest {
+
+    @Test
+    public void formatsTest() throws IOException {
+        String array = "[{\"category\":\"Nature\",\"title\":\"a {[\\\"]}\",\"press\":\"P\",\"publishYear\":2000,"
+                + "\"author\":\"A\",\"price\":19.99,\"stock\":3},\n {\"category\":\"Art\",\"title\":\"b\"}]";
+        String ndjson = "{\"category\":\"Nature\",\"title\":\"a {[\\\"]}\",\"press\":\"P\",\"publishYear\":2000,"
+                + "\"author\":\"A\",\"price\":19.99,\"stock\":3}\r\n{\"category\":\"Art\",\"title\":\"b\"}\n";
+        for (String body : new String[]{array, ndjson}) {
+            try (BookStream books = open(body)) {
+                Book first = books.next();
+                Assert.assertEquals("a {[\"]}", first.getTitle());
+                Assert.assertEquals(1999, first.getPriceCents());
+                Assert.assertEquals(3, first.getStock());
+                Assert.assertEquals("Art", books.next().getCategory());
+                Assert.assertNull(books.next());
+                Assert.assertEquals(2, books.count());
+            }
+        }
+        Assert.assertNull(open(" [ ] ").next());
+    }
+
+    @Test
+    public void malformedTest() throws IOException {
+        for (String body : new String[]{"[{\"title\":\"a\"}, 1]", "{\"title\":\"a\"", "{\"title\":}"}) {
+            BookStream books = open(body);
+            try {
+                while (books.next() != null) {
+                    // read up to the malformed book
+                }
+                Assert.fail(body);
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("book"));
+            }
+        }
+    }
+
+    private static BookStream open(String body) {
+        return new BookStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
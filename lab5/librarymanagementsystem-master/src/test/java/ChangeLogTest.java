@@ -0,0 +1,74 @@
+import org.junit.Assert;
+import org.junit.Test;
+import utils.ChangeLog;
+
+import java.util.Arrays;
+
+public class ChangeLogTest {
+
+    @Test
+    public void sinceTest() {
+        ChangeLog log = new ChangeLog(100);
+        long start = log.seq();
+        Assert.assertTrue(log.since(0, 10).reset); // a new mirror reads everything first
+        Assert.assertFalse(log.since(start, 10).reset);
+
+        log.changed(ChangeLog.Kind.BOOK, 1);
+        long synced = log.changed(ChangeLog.Kind.CARD, 1);
+        log.changed(ChangeLog.Kind.BOOK, 2);
+        log.changed(ChangeLog.Kind.BOOK, 1); // supersedes the first change
+        log.removed(ChangeLog.Kind.BOOK, 2);
+        log.removed(ChangeLog.Kind.CARD, 7);
+
+        ChangeLog.Changes changes = log.since(start, 10);
+        Assert.assertFalse(changes.reset || changes.more);
+        Assert.assertEquals(log.seq(), changes.seq);
+        Assert.assertArrayEquals(new int[]{1}, changes.books.toArray());
+        Assert.assertArrayEquals(new int[]{1}, changes.cards.toArray());
+        Assert.assertArrayEquals(new int[]{2}, changes.removedBooks.toArray());
+        Assert.assertArrayEquals(new int[]{7}, changes.removedCards.toArray());
+
+        changes = log.since(synced, 10); // card 1 has been seen
+        Assert.assertTrue(changes.cards.isEmpty());
+        Assert.assertArrayEquals(new int[]{1}, changes.books.toArray());
+
+        changes = log.since(start, 2); // in pages
+        Assert.assertTrue(changes.more);
+        Assert.assertEquals(2, changes.cards.size() + changes.books.size() + changes.removedBooks.size());
+        changes = log.since(changes.seq, 2);
+        Assert.assertFalse(changes.more);
+        Assert.assertEquals(log.seq(), changes.seq);
+
+        Assert.assertTrue(log.since(log.seq(), 10).books.isEmpty());
+        Assert.assertTrue(log.since(log.seq() + 1, 10).reset); // not a number of this run
+
+        log.clear();
+        Assert.assertTrue(log.since(changes.seq, 10).reset);
+        Assert.assertFalse(log.since(log.seq(), 10).reset);
+    }
+
+    @Test
+    public void compactionTest() {
+        ChangeLog log = new ChangeLog(1000);
+        long start = log.seq();
+        for (int round = 0; round < 100; round++) { // many changes of few rows
+            for (int id = 0; id < 100; id++) {
+                log.changed(ChangeLog.Kind.BOOK, id);
+            }
+        }
+        ChangeLog.Changes changes = log.since(start, 1000);
+        Assert.assertEquals(100, changes.books.size());
+
+        for (int id = 0; id < 2000; id++) { // more tombstones than kept
+            log.removed(ChangeLog.Kind.CARD, id);
+        }
+        Assert.assertTrue(log.since(start, 10).reset); // behind a dropped tombstone
+        long recent = log.seq() - 500;
+        changes = log.since(recent, 1000);
+        Assert.assertFalse(changes.reset);
+        int[] removed = changes.removedCards.toArray();
+        Assert.assertEquals(500, removed.length);
+        Assert.assertEquals(1999, removed[removed.length - 1]);
+        Assert.assertTrue(Arrays.stream(removed).allMatch(id -> id >= 1500));
+    }
+}
@@ -0,0 +1,82 @@
+import http.Body;
+import http.CompressingOutputStream;
+import http.Encoding;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest {
+
+    @Test
+    public void negotiateTest() {
+        Assert.assertEquals(Encoding.IDENTITY, Encoding.negotiate(null));
+        Assert.assertEquals(Encoding.GZIP, Encoding.negotiate("gzip, deflate, br"));
+        Assert.assertEquals(Encoding.DEFLATE, Encoding.negotiate("deflate"));
+        Assert.assertEquals(Encoding.DEFLATE, Encoding.negotiate("gzip;q=0, deflate;q=0.5"));
+        Assert.assertEquals(Encoding.GZIP, Encoding.negotiate("*"));
+        Assert.assertEquals(Encoding.IDENTITY, Encoding.negotiate("br, identity"));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        byte[] bytes = sample();
+        for (int i = 0; i < 3; i++) { // deflaters come back from the pool reset
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            try (CompressingOutputStream out = CompressingOutputStream.open(gzip, Encoding.GZIP)) {
+                out.write(bytes, 0, 100);
+                out.write(bytes, 100, bytes.length - 100);
+            }
+            Assert.assertArrayEquals(bytes, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+            Assert.assertTrue(gzip.size() < bytes.length);
+        }
+        Body body = new Body(bytes, "application/json; charset=utf-8");
+        byte[] deflate = body.encoded(Encoding.DEFLATE);
+        Assert.assertArrayEquals(bytes, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+        Assert.assertSame(deflate, body.encoded(Encoding.DEFLATE));
+        Assert.assertSame(bytes, body.encoded(Encoding.IDENTITY));
+    }
+
+    @Test
+    public void flushTest() throws IOException, DataFormatException {
+        byte[] line = "{\"imported\":1000}\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        try (CompressingOutputStream out = CompressingOutputStream.open(sent, Encoding.DEFLATE)) {
+            out.write(line);
+            out.flush();
+            // the client can read the line before the stream ends
+            Inflater inflater = new Inflater();
+            inflater.setInput(sent.toByteArray());
+            byte[] read = new byte[64];
+            int n = inflater.inflate(read);
+            inflater.end();
+            Assert.assertArrayEquals(line, Arrays.copyOf(read, n));
+        }
+    }
+
+    private static byte[] sample() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            sb.append("{\"bookId\":").append(i).append(",\"title\":\"书名-").append(i).append("\",\"price\":19.80},");
+        }
+        return sb.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+import com.sun.net.httpserver.HttpServer;
+import http.ETags;
+import http.Responses;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import utils.ResourceVersion;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ETagTest {
+
+    private HttpServer server;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/book", exchange -> {
+            String etag = ETags.of(ResourceVersion.BOOK, exchange);
+            if (ETags.notModified(exchange, etag)) {
+                return;
+            }
+            reads.incrementAndGet();
+            ETags.tag(exchange, etag);
+            byte[] bytes = "[]".getBytes(StandardCharsets.UTF_8);
+            Responses.send(exchange, 200, "application/json; charset=utf-8", bytes, 0, bytes.length);
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void conditionalGetTest() throws IOException {
+        HttpURLConnection first = get("/book?title=a", null);
+        Assert.assertEquals(200, first.getResponseCode());
+        String etag = first.getHeaderField("ETag");
+        Assert.assertNotNull(etag);
+
+        Assert.assertEquals(304, get("/book?title=a", etag).getResponseCode());
+        Assert.assertEquals(304, get("/book?title=a", "\"x\", " + etag).getResponseCode());
+        Assert.assertEquals(200, get("/book?title=b", etag).getResponseCode()); // another query
+        Assert.assertEquals(2, reads.get());
+
+        ResourceVersion.CARD.bump();
+        Assert.assertEquals(304, get("/book?title=a", etag).getResponseCode());
+        ResourceVersion.BOOK.bump();
+        HttpURLConnection changed = get("/book?title=a", etag);
+        Assert.assertEquals(200, changed.getResponseCode());
+        Assert.assertNotEquals(etag, changed.getHeaderField("ETag"));
+    }
+
+    private HttpURLConnection get(String path, String ifNoneMatch) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setUseCaches(false);
+        if (ifNoneMatch != null) {
+            conn.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        return conn;
+    }
+}
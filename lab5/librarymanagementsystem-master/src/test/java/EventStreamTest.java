@@ -0,0 +1,85 @@
+import http.EventStream;
+import http.NioHttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import utils.ChangeEvent;
+import utils.ChangeFeed;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventStreamTest {
+
+    @Test
+    public void coalesceTest() {
+        ChangeFeed feed = new ChangeFeed();
+        AtomicInteger wakeups = new AtomicInteger();
+        ChangeFeed.Subscription subscription = feed.subscribe(2, wakeups::incrementAndGet);
+        feed.publish(ChangeEvent.stock(1, 5));
+        feed.publish(ChangeEvent.borrow(2, 1, 100));
+        feed.publish(ChangeEvent.stock(1, 4)); // replaces the pending stock of book 1
+        Assert.assertEquals(1, wakeups.get());
+        List<ChangeEvent> events = subscription.drain();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("borrow {\"cardId\":2,\"bookId\":1,\"time\":100}", events.get(0).toString());
+        Assert.assertEquals("stock {\"bookId\":1,\"stock\":4}", events.get(1).toString());
+
+        for (int i = 0; i < 3; i++) { // more distinct changes than the buffer holds
+            feed.publish(ChangeEvent.stock(i, i));
+        }
+        Assert.assertEquals(2, wakeups.get());
+        Assert.assertEquals(ChangeEvent.RESET, subscription.drain().get(0));
+        Assert.assertTrue(subscription.drain().isEmpty());
+
+        subscription.close();
+        Assert.assertEquals(0, feed.subscribers());
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        ChangeFeed feed = new ChangeFeed();
+        NioHttpServer server = NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64, 1);
+        server.createContext("/events", exchange -> EventStream.open(exchange, feed));
+        server.createContext("/ping", exchange -> exchange.sendResponseHeaders(204, -1));
+        server.start();
+        try {
+            HttpURLConnection events = open(server, "/events");
+            Assert.assertEquals(200, events.getResponseCode());
+            Assert.assertTrue(events.getContentType().startsWith("text/event-stream"));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(events.getInputStream(), StandardCharsets.UTF_8));
+            Assert.assertEquals("retry: 3000", reader.readLine());
+            Assert.assertEquals("", reader.readLine());
+
+            // the only worker is free while the stream stays open
+            Assert.assertEquals(204, open(server, "/ping").getResponseCode());
+
+            feed.publish(ChangeEvent.stock(7, 2));
+            Assert.assertEquals("event: stock", reader.readLine());
+            Assert.assertEquals("data: {\"bookId\":7,\"stock\":2}", reader.readLine());
+            Assert.assertEquals("", reader.readLine());
+
+            events.disconnect();
+            for (int i = 0; i < 100 && feed.subscribers() > 0; i++) { // found on the next write
+                feed.publish(ChangeEvent.stock(7, i));
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(0, feed.subscribers());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpURLConnection open(NioHttpServer server, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:"
+                + server.getAddress().getPort() + path).openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+}
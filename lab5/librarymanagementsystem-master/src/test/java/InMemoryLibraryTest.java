@@ -0,0 +1,429 @@
+import engine.HeapBookStore;
+import engine.OffHeapBookStore;
+import engine.ParallelBookScan;
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import index.BookSearchIndex;
+import org.apache.commons.lang3.RandomUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import queries.*;
+import utils.RandomData;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class InMemoryLibraryTest {
+
+    private LibraryManagementSystem library;
+
+    @Before
+    public void prepareTest() {
+        library = new InMemoryLibraryManagementSystem();
+        Assert.assertTrue(library.resetDatabase().ok);
+    }
+
+    @Test
+    public void queryBookTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 1000, 0, 0);
+        for (BookQueryConditions queryCondition : randomConditions(60)) {
+            ApiResult queryResult = library.queryBook(queryCondition);
+            Assert.assertTrue(queryResult.ok);
+            List<Book> expectedResults = verifyQueryResult(my.books, queryCondition);
+            assertSameBooks(expectedResults, (BookQueryResults) queryResult.payload);
+        }
+    }
+
+    @Test
+    public void streamQueryBookTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 500, 0, 0);
+        for (BookQueryConditions queryCondition : randomConditions(20)) {
+            List<Book> streamed = new ArrayList<>();
+            ApiResult queryResult = library.queryBook(queryCondition, streamed::add);
+            Assert.assertTrue(queryResult.ok);
+            Assert.assertEquals(streamed.size(), queryResult.payload);
+            assertSameBooks(verifyQueryResult(my.books, queryCondition), new BookQueryResults(streamed));
+        }
+    }
+
+    @Test
+    public void queryBookParallelTest() {
+        /* a tiny threshold, so every query forks & merges many runs */
+        library = new InMemoryLibraryManagementSystem(new HeapBookStore(),
+                new ParallelBookScan(new ForkJoinPool(4), 64));
+        MyLibrary my = MyLibrary.createLibrary(library, 3000, 0, 0);
+        for (BookQueryConditions queryCondition : randomConditions(60)) {
+            ApiResult queryResult = library.queryBook(queryCondition);
+            Assert.assertTrue(queryResult.ok);
+            List<Book> expectedResults = verifyQueryResult(my.books, queryCondition);
+            assertSameBooks(expectedResults, (BookQueryResults) queryResult.payload);
+        }
+    }
+
+    @Test
+    public void queryOffHeapBookTest() {
+        OffHeapBookStore store = new OffHeapBookStore(); // ids outside the store are just unknown, like on the heap
+        Assert.assertNull(store.get(-1));
+        Assert.assertFalse(store.contains(-1));
+        Assert.assertFalse(store.remove(-1));
+        library = new InMemoryLibraryManagementSystem(new OffHeapBookStore(),
+                new ParallelBookScan(new ForkJoinPool(4), 64));
+        MyLibrary my = MyLibrary.createLibrary(library, 3000, 0, 0);
+        /* removed slots are reused, and modified books move in the lookup of duplicates */
+        for (int i = 0; i < 300; i++) {
+            Book b = my.books.remove(RandomUtils.nextInt(0, my.books.size()));
+            Assert.assertTrue(library.removeBook(b.getBookId()).ok);
+        }
+        for (int i = 0; i < 300; i++) {
+            Book b = my.books.get(RandomUtils.nextInt(0, my.books.size()));
+            Book old = b.clone();
+            b.setTitle(b.getTitle() + " (" + i + ")");
+            Assert.assertTrue(library.modifyBookInfo(b).ok);
+            Assert.assertFalse(library.storeBook(b.clone()).ok);
+            Assert.assertTrue(library.storeBook(old).ok);
+            my.books.add(old);
+        }
+        for (BookQueryConditions queryCondition : randomConditions(60)) {
+            ApiResult queryResult = library.queryBook(queryCondition);
+            Assert.assertTrue(queryResult.ok);
+            List<Book> expectedResults = verifyQueryResult(my.books, queryCondition);
+            if (RandomUtils.nextBoolean()) {
+                queryCondition.setLimit(RandomUtils.nextInt(0, 100));
+                queryResult = library.queryBook(queryCondition);
+                expectedResults = expectedResults.subList(0, Math.min(queryCondition.getLimit(), expectedResults.size()));
+            }
+            assertSameBooks(expectedResults, (BookQueryResults) queryResult.payload);
+        }
+    }
+
+    @Test
+    public void queryTopKBookTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 1000, 0, 0);
+        for (BookQueryConditions queryCondition : randomConditions(60)) {
+            /* every column & order, k smaller, around and larger than the matches */
+            queryCondition.setSortBy(Book.SortColumn.random());
+            queryCondition.setSortOrder(SortOrder.random());
+            queryCondition.setLimit(RandomUtils.nextInt(0, 1200));
+            ApiResult queryResult = library.queryBook(queryCondition);
+            Assert.assertTrue(queryResult.ok);
+            List<Book> expectedResults = verifyQueryResult(my.books, queryCondition);
+            expectedResults = expectedResults.subList(0, Math.min(queryCondition.getLimit(), expectedResults.size()));
+            assertSameBooks(expectedResults, (BookQueryResults) queryResult.payload);
+        }
+    }
+
+    @Test
+    public void snapshotReadTest() throws InterruptedException {
+        /* 8 cards borrow & return 20 books while readers scan, reports must
+         * never see a stock out of range nor an unreturned book with a return time */
+        MyLibrary my = MyLibrary.createLibrary(library, 20, 8, 0);
+        Map<Integer, Integer> initial = new HashMap<>();
+        for (Book b : my.books) {
+            initial.put(b.getBookId(), b.getStock());
+        }
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicLong clock = new AtomicLong(1);
+        List<Thread> threads = new ArrayList<>();
+        for (Card c : my.cards) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Borrow r = new Borrow(my.books.get(RandomUtils.nextInt(0, my.books.size())).getBookId(), c.getCardId());
+                    r.setBorrowTime(clock.incrementAndGet());
+                    if (library.borrowBook(r).ok) {
+                        r.setReturnTime(clock.incrementAndGet());
+                        Assert.assertTrue(library.returnBook(r).ok);
+                    }
+                }
+            }));
+        }
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    BookQueryResults results = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+                    Assert.assertEquals(my.books.size(), results.getCount());
+                    for (Book b : results.getResults()) {
+                        Assert.assertTrue(b.getStock() >= 0 && b.getStock() <= initial.get(b.getBookId()));
+                    }
+                    for (Card c : my.cards) {
+                        BorrowHistories histories = (BorrowHistories) library.showBorrowHistory(c.getCardId()).payload;
+                        for (BorrowHistories.Item item : histories.getItems()) {
+                            Assert.assertTrue(item.getReturnTime() == 0 || item.getReturnTime() > item.getBorrowTime());
+                        }
+                    }
+                    ((InMemoryLibraryManagementSystem) library).reclaim();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        reader.start();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        reader.join();
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        /* every book is back, and every history is returned */
+        BookQueryResults results = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+        for (Book b : results.getResults()) {
+            Assert.assertEquals(initial.get(b.getBookId()).intValue(), b.getStock());
+        }
+        int total = 0;
+        for (Card c : my.cards) {
+            BorrowHistories histories = (BorrowHistories) library.showBorrowHistory(c.getCardId()).payload;
+            for (BorrowHistories.Item item : histories.getItems()) {
+                Assert.assertTrue(item.getReturnTime() > item.getBorrowTime());
+            }
+            total += histories.getCount();
+            Assert.assertTrue(library.removeCard(c.getCardId()).ok);
+            Assert.assertEquals(0, ((BorrowHistories) library.showBorrowHistory(c.getCardId()).payload).getCount());
+        }
+        Assert.assertTrue(total > 0);
+    }
+
+    @Test
+    public void parallelBorrowBookTest() throws InterruptedException {
+        int nThreads = BorrowThread.nThreads;
+        MyLibrary my = MyLibrary.createLibrary(library, 1, nThreads, 0);
+        Book book = my.books.get(0);
+        // let book.stock = 1
+        Assert.assertTrue(library.incBookStock(book.getBookId(), -book.getStock() + 1).ok);
+        BorrowThread.successOps.set(0);
+        List<BorrowThread> borrowThreads = new ArrayList<>();
+        BorrowThread.acquireAll();
+        for (int i = 0; i < nThreads; i++) {
+            Borrow borrow = new Borrow(book, my.cards.get(i));
+            borrow.resetBorrowTime();
+            BorrowThread thd = new BorrowThread(i, library, borrow);
+            thd.start();
+            borrowThreads.add(thd);
+        }
+        BorrowThread.releaseAll();
+        for (BorrowThread thd : borrowThreads) {
+            thd.join();
+        }
+        // only one thread can successfully borrow the book
+        Assert.assertEquals(1, BorrowThread.successOps.get());
+    }
+
+    @Test
+    public void parallelBorrowStressTest() throws InterruptedException {
+        /* 64 cards race for 40 books with 1~3 copies, borrowing, returning,
+         * restocking and trying to remove cards & books with loans */
+        int nThreads = 64;
+        MyLibrary my = MyLibrary.createLibrary(library, 40, nThreads, 0);
+        Map<Integer, AtomicInteger> expected = new HashMap<>();
+        for (Book b : my.books) {
+            int stock = RandomUtils.nextInt(1, 4);
+            Assert.assertTrue(library.incBookStock(b.getBookId(), stock - b.getStock()).ok);
+            expected.put(b.getBookId(), new AtomicInteger(stock));
+        }
+        AtomicLong clock = new AtomicLong(1);
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            Card card = my.cards.get(t);
+            threads.add(new Thread(() -> {
+                try {
+                    Set<Integer> held = new HashSet<>();
+                    for (int i = 0; i < 3000; i++) {
+                        int bookId = my.books.get(RandomUtils.nextInt(0, my.books.size())).getBookId();
+                        Borrow r = new Borrow(bookId, card.getCardId());
+                        int op = RandomUtils.nextInt(0, 10);
+                        if (op < 5) {
+                            r.setBorrowTime(clock.incrementAndGet());
+                            boolean ok = library.borrowBook(r).ok;
+                            Assert.assertFalse(ok && held.contains(bookId));
+                            if (ok) {
+                                held.add(bookId);
+                            }
+                        } else if (op < 9) {
+                            r.setReturnTime(clock.incrementAndGet());
+                            Assert.assertEquals(held.remove(bookId), library.returnBook(r).ok);
+                        } else if (RandomUtils.nextBoolean()) {
+                            int delta = RandomUtils.nextInt(0, 3) - 1;
+                            if (library.incBookStock(bookId, delta).ok) {
+                                expected.get(bookId).addAndGet(delta);
+                            }
+                        } else if (!held.isEmpty()) {
+                            Assert.assertFalse(library.removeCard(card.getCardId()).ok);
+                            Assert.assertFalse(library.removeBook(held.iterator().next()).ok);
+                        }
+                    }
+                    for (int bookId : held) {
+                        Borrow r = new Borrow(bookId, card.getCardId());
+                        r.setReturnTime(clock.incrementAndGet());
+                        Assert.assertTrue(library.returnBook(r).ok);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        /* every copy is back: the stock is the initial one plus the restocks */
+        BookQueryResults results = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+        Assert.assertEquals(my.books.size(), results.getCount());
+        for (Book b : results.getResults()) {
+            Assert.assertEquals(expected.get(b.getBookId()).get(), b.getStock());
+            Assert.assertTrue(library.removeBook(b.getBookId()).ok);
+        }
+        for (Card c : my.cards) {
+            Assert.assertTrue(library.removeCard(c.getCardId()).ok);
+        }
+        /* unknown cards, also past the first segment of the loan table */
+        for (int cardId : new int[]{my.cards.get(0).getCardId(), 5000, -1}) {
+            ApiResult result = library.removeCard(cardId);
+            Assert.assertFalse(result.ok);
+            Assert.assertEquals("No such card to be removed", result.message);
+        }
+    }
+
+    @Test
+    public void suggestByStockTest() {
+        Book few = new Book("Computer Science", "Database System Concepts", "Press-A", 2019, "Silberschatz", 99.0, 1);
+        Book many = new Book("Computer Science", "Data Structures", "Press-B", 2011, "Weiss", 59.0, 3);
+        Assert.assertTrue(library.storeBook(few).ok);
+        Assert.assertTrue(library.storeBook(many).ok);
+        Assert.assertEquals(Arrays.asList("Data Structures", "Database System Concepts"),
+                library.suggestBook(BookSearchIndex.Field.TITLE, "data", 10).payload);
+
+        Card card = new Card(0, "User00000", "Architecture", Card.CardType.Teacher);
+        Assert.assertTrue(library.registerCard(card).ok);
+        Borrow borrow = new Borrow(many, card);
+        borrow.resetBorrowTime();
+        Assert.assertTrue(library.borrowBook(borrow).ok);
+        Assert.assertTrue(library.incBookStock(few.getBookId(), 2).ok);
+        ((InMemoryLibraryManagementSystem) library).rerank(); // as the background task does
+        Assert.assertEquals(Arrays.asList("Database System Concepts", "Data Structures"),
+                library.suggestBook(BookSearchIndex.Field.TITLE, "data", 10).payload);
+
+        // modifying a book keeps its weight
+        few.setTitle("Database Concepts");
+        Assert.assertTrue(library.modifyBookInfo(few).ok);
+        ((InMemoryLibraryManagementSystem) library).rerank();
+        Assert.assertEquals(Arrays.asList("Database Concepts", "Data Structures"),
+                library.suggestBook(BookSearchIndex.Field.TITLE, "data", 10).payload);
+    }
+
+    @Test
+    public void syncCatalogTest() {
+        SyncResults start = (SyncResults) library.syncCatalog(0, 100).payload;
+        Assert.assertTrue(start.isReset()); // cleared by the reset
+        Book book = new Book("Nature", "Le Petit Prince", "Press-C", 2000, "Yuuku", 19.8, 2);
+        Assert.assertTrue(library.storeBook(book).ok);
+        Card reader = new Card(0, "User00000", "Architecture", Card.CardType.Teacher);
+        Card leaver = new Card(0, "User00001", "Architecture", Card.CardType.Student);
+        Assert.assertTrue(library.registerCard(reader).ok);
+        Assert.assertTrue(library.registerCard(leaver).ok);
+        Borrow borrow = new Borrow(book, reader);
+        borrow.resetBorrowTime();
+        Assert.assertTrue(library.borrowBook(borrow).ok);
+        Assert.assertTrue(library.removeCard(leaver.getCardId()).ok);
+
+        SyncResults changes = (SyncResults) library.syncCatalog(start.getSeq(), 100).payload;
+        Assert.assertFalse(changes.isReset() || changes.isMore());
+        Assert.assertEquals(1, changes.getBooks().size());
+        Assert.assertEquals(1, changes.getBooks().get(0).getStock()); // as it is now
+        Assert.assertEquals(1, changes.getCards().size());
+        Assert.assertEquals(reader.getCardId(), changes.getCards().get(0).getCardId());
+        Assert.assertArrayEquals(new int[]{leaver.getCardId()}, changes.getRemovedCards());
+        Assert.assertEquals(0, changes.getRemovedBooks().length);
+
+        SyncResults none = (SyncResults) library.syncCatalog(changes.getSeq(), 100).payload;
+        Assert.assertTrue(none.getBooks().isEmpty() && none.getCards().isEmpty());
+    }
+
+    private static List<BookQueryConditions> randomConditions(int n) {
+        List<BookQueryConditions> queryConditions = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            BookQueryConditions c = new BookQueryConditions();
+            int mask = RandomUtils.nextInt(0, 32);
+            if ((mask & 1) > 0) {
+                c.setPress(RandomData.randomPress());
+            }
+            if ((mask & 2) > 0) {
+                c.setCategory(RandomData.randomCategory());
+            }
+            if ((mask & 4) > 0) {
+                c.setAuthor(RandomData.randomAuthor());
+            }
+            if ((mask & 8) > 0) {
+                int minY = RandomUtils.nextInt(2000, 2015);
+                c.setMinPublishYear(minY);
+                c.setMaxPublishYear(Math.max(RandomUtils.nextInt(2007, 2024), minY + 7));
+            }
+            if ((mask & 16) > 0) {
+                double minP = RandomData.randomPrice();
+                c.setMinPrice(minP);
+                c.setMaxPrice(Math.max(RandomData.randomPrice(), minP + 16.66));
+            }
+            if (RandomUtils.nextInt(1, 4) != 1) {
+                c.setSortBy(Book.SortColumn.random());
+                c.setSortOrder(SortOrder.random());
+            }
+            queryConditions.add(c);
+        }
+        return queryConditions;
+    }
+
+    private static void assertSameBooks(List<Book> expectedResults, BookQueryResults bookResults) {
+        Assert.assertEquals(expectedResults.size(), bookResults.getCount());
+        for (int i = 0; i < expectedResults.size(); i++) {
+            Book o1 = expectedResults.get(i);
+            Book o2 = bookResults.getResults().get(i);
+            Assert.assertEquals(o1.toString(), o2.toString());
+        }
+    }
+
+    private static List<Book> verifyQueryResult(List<Book> books, BookQueryConditions conditions) {
+        Stream<Book> stream = books.stream();
+        if (conditions.getCategory() != null) {
+            stream = stream.filter(b -> b.getCategory().equals(conditions.getCategory()));
+        }
+        if (conditions.getTitle() != null) {
+            stream = stream.filter(b -> b.getTitle().contains(conditions.getTitle()));
+        }
+        if (conditions.getPress() != null) {
+            stream = stream.filter(b -> b.getPress().contains(conditions.getPress()));
+        }
+        if (conditions.getMinPublishYear() != null) {
+            stream = stream.filter(b -> b.getPublishYear() >= conditions.getMinPublishYear());
+        }
+        if (conditions.getMaxPublishYear() != null) {
+            stream = stream.filter(b -> b.getPublishYear() <= conditions.getMaxPublishYear());
+        }
+        if (conditions.getAuthor() != null) {
+            stream = stream.filter(b -> b.getAuthor().contains(conditions.getAuthor()));
+        }
+        if (conditions.getMinPrice() != null) {
+            stream = stream.filter(b -> b.getPrice() >= conditions.getMinPrice());
+        }
+        if (conditions.getMaxPrice() != null) {
+            stream = stream.filter(b -> b.getPrice() <= conditions.getMaxPrice());
+        }
+        Comparator<Book> cmp = conditions.getSortBy().getComparator();
+        if (conditions.getSortOrder() == SortOrder.DESC) {
+            cmp = cmp.reversed();
+        }
+        return stream.sorted(cmp.thenComparingInt(Book::getBookId)).collect(Collectors.toList());
+    }
+
+}
@@ -14,6 +14,7 @@ import utils.DatabaseConnector;
 import utils.RandomData;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -217,6 +218,33 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void runInTransactionTest() {
+        Book book = RandomData.randomBook();
+        List<Function<LibraryManagementSystem, ApiResult>> calls = new ArrayList<>();
+        calls.add(l -> l.storeBook(book));
+        calls.add(l -> l.incBookStock(book.getBookId(), 5)); // the id stored by the call before
+        calls.add(l -> l.incBookStock(book.getBookId(), -book.getStock() - 100)); // not enough stock
+        /* fail fast: nothing is committed */
+        ApiResult failFast = library.runInTransaction(calls, true);
+        Assert.assertFalse(failFast.ok);
+        BatchResults results = (BatchResults) failFast.payload;
+        Assert.assertFalse(results.isCommitted());
+        Assert.assertEquals(3, results.getResults().size());
+        Assert.assertEquals(0, ((BookQueryResults) library.queryBook(new BookQueryConditions()).payload).getCount());
+        /* go on: only the failed call is undone */
+        ApiResult goOn = library.runInTransaction(calls, false);
+        Assert.assertTrue(goOn.ok);
+        results = (BatchResults) goOn.payload;
+        Assert.assertTrue(results.isCommitted());
+        Assert.assertTrue(results.getResults().get(0).ok);
+        Assert.assertTrue(results.getResults().get(1).ok);
+        Assert.assertFalse(results.getResults().get(2).ok);
+        List<Book> books = ((BookQueryResults) library.queryBook(new BookQueryConditions()).payload).getResults();
+        Assert.assertEquals(1, books.size());
+        Assert.assertEquals(book.getStock() + 5, books.get(0).getStock());
+    }
+
     @Test
     public void bulkRegisterBookTest() {
         /* simply insert some books to database */
@@ -0,0 +1,82 @@
+import http.Body;
+import http.MicroCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MicroCacheTest {
+
+    @Test
+    public void singleFlightTest() throws Exception {
+        MicroCache cache = new MicroCache(60000, 1 << 20);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Body[] seen = new Body[8];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < seen.length; t++) {
+            int i = t;
+            threads.add(new Thread(() -> {
+                try {
+                    seen[i] = cache.get("/book?title=a", "v1", () -> {
+                        loads.incrementAndGet();
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return body(100);
+                    });
+                } catch (IOException | RuntimeException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+        threads.get(0).start();
+        started.await();
+        for (int t = 1; t < threads.size(); t++) {
+            threads.get(t).start();
+        }
+        Thread.sleep(50); // let the others join the flight
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, loads.get());
+        for (Body body : seen) {
+            Assert.assertSame(seen[0], body);
+        }
+        Assert.assertSame(seen[0], cache.get("/book?title=a", "v1", () -> body(1)));
+        Assert.assertNotSame(seen[0], cache.get("/book?title=a", "v2", () -> body(1))); // the version moved
+    }
+
+    @Test
+    public void expiryAndEvictionTest() throws Exception {
+        MicroCache cache = new MicroCache(30, 8000);
+        Body body = cache.get("/card", "v", () -> body(500));
+        Assert.assertSame(body, cache.get("/card", "v", () -> body(500)));
+        Thread.sleep(50);
+        Assert.assertNotSame(body, cache.get("/card", "v", () -> body(500)));
+
+        cache.clear();
+        for (int i = 0; i < 40; i++) {
+            cache.get("/book?page=" + i, "v", () -> body(900));
+            cache.get("/book?page=0", "v", () -> body(900)); // keeps the first one hot
+        }
+        Assert.assertTrue(cache.size() <= 8);
+        Body hot = cache.get("/book?page=0", "v", () -> body(900));
+        Assert.assertSame(hot, cache.get("/book?page=0", "v", () -> body(900)));
+        Assert.assertNull(cache.get("/book?page=x", "v", () -> null)); // failures are not kept
+        Assert.assertNotNull(cache.get("/book?page=x", "v", () -> body(1)));
+    }
+
+    private static Body body(int size) {
+        return new Body(new byte[size], "application/json; charset=utf-8");
+    }
+}
@@ -0,0 +1,106 @@
+import http.NioHttpServer;
+import http.Responses;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class NioHttpServerTest {
+
+    private NioHttpServer server;
+
+    @Before
+    public void start() throws IOException {
+        server = NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64, 2);
+        server.createContext("/echo", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            byte[] bytes = (exchange.getRequestMethod() + ' ' + exchange.getRequestURI().getQuery() + ' ' + body.length)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.createContext("/echo/empty", exchange -> exchange.sendResponseHeaders(204, -1));
+        server.createContext("/stream", exchange -> {
+            try (OutputStream out = Responses.stream(exchange, 200, "application/x-ndjson")) {
+                byte[] line = "{\"bookId\":1}\n".getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i < 100000; i++) {
+                    out.write(line);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop();
+    }
+
+    @Test
+    public void requestTest() throws IOException {
+        HttpURLConnection get = open("/echo?cardId=1");
+        Assert.assertEquals(200, get.getResponseCode());
+        Assert.assertEquals("GET cardId=1 0", new String(readAll(get.getInputStream()), StandardCharsets.UTF_8));
+
+        HttpURLConnection post = open("/echo");
+        post.setDoOutput(true);
+        byte[] body = new byte[300000];
+        Arrays.fill(body, (byte) 'x');
+        try (OutputStream out = post.getOutputStream()) {
+            out.write(body);
+        }
+        Assert.assertEquals("POST null 300000", new String(readAll(post.getInputStream()), StandardCharsets.UTF_8));
+
+        Assert.assertEquals(204, open("/echo/empty").getResponseCode()); // the longest context wins
+        Assert.assertEquals(404, open("/missing").getResponseCode());
+
+        HttpURLConnection stream = open("/stream");
+        Assert.assertEquals(200, stream.getResponseCode());
+        Assert.assertEquals(1300000, readAll(stream.getInputStream()).length);
+    }
+
+    @Test
+    public void pipeliningTest() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /echo?n=1 HTTP/1.1\r\nHost: x\r\n\r\n"
+                    + "POST /echo?n=2 HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nhello"
+                    + "GET /echo?n=3 HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String responses = new String(readAll(socket.getInputStream()), StandardCharsets.ISO_8859_1);
+            int first = responses.indexOf("GET n=1 0");
+            int second = responses.indexOf("POST n=2 5");
+            int third = responses.indexOf("GET n=3 0");
+            Assert.assertTrue(responses, first > 0 && second > first && third > second);
+            Assert.assertTrue(responses, responses.endsWith("GET n=3 0")); // closed after the last one
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + path).openConnection();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.Assert;
+import org.junit.Test;
+import primitives.IntIntMap;
+import primitives.IntList;
+import primitives.IntObjectMap;
+import primitives.LongSet;
+
+import java.util.*;
+
+public class PrimitiveCollectionsTest {
+
+    /* small key ranges, so that removals hit probe chains often */
+    @Test
+    public void intObjectMapTest() {
+        Random random = new Random(42);
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(512) - 256;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = String.valueOf(i);
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (int key = -256; key < 256; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        IntList keys = map.keys();
+        keys.sort();
+        Assert.assertArrayEquals(new TreeSet<>(expected.keySet()).stream().mapToInt(Integer::intValue).toArray(),
+                keys.toArray());
+    }
+
+    @Test
+    public void intIntMapTest() {
+        Random random = new Random(7);
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(300);
+            switch (random.nextInt(3)) {
+                case 0:
+                    Assert.assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+                case 1:
+                    Assert.assertEquals((int) expected.merge(key, 5, Integer::sum), map.addTo(key, 5));
+                    break;
+                default:
+                    expected.put(key, i);
+                    map.put(key, i);
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 300; key++) {
+            Assert.assertEquals((int) expected.getOrDefault(key, -1), map.get(key, -1));
+        }
+    }
+
+    @Test
+    public void longSetTest() {
+        Random random = new Random(3);
+        LongSet set = new LongSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200000; i++) {
+            long key = LongSet.pair(random.nextInt(20), random.nextInt(20) - 10);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(key), set.add(key));
+            } else {
+                Assert.assertEquals(expected.remove(key), set.remove(key));
+            }
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        for (Long key : expected) {
+            Assert.assertTrue(set.contains(key));
+        }
+    }
+
+    @Test
+    public void intListTest() {
+        Random random = new Random(11);
+        IntList list = new IntList();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            int pos = list.binarySearch(value);
+            Assert.assertEquals(Collections.binarySearch(expected, value) >= 0, pos >= 0);
+            if (pos >= 0) {
+                Assert.assertEquals((int) expected.remove(pos), list.removeAt(pos));
+            } else {
+                list.insert(-pos - 1, value);
+                expected.add(-pos - 1, value);
+            }
+        }
+        Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), list.toArray());
+    }
+}
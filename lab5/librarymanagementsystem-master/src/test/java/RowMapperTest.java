@@ -0,0 +1,150 @@
+import entities.Book;
+import entities.Card;
+import entities.Prices;
+import mappers.RowMapper;
+import mappers.RowMappers;
+import org.junit.Assert;
+import org.junit.Test;
+import utils.RandomData;
+import utils.StringDictionary;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Checks the row mappers against an in-memory result set, and benchmarks
+ * them against name lookups when run as a program:
+ *      java -cp target/classes:target/test-classes:... RowMapperTest [rows]
+ */
+public class RowMapperTest {
+
+    private static final String[] BOOK_COLUMNS =
+            {"book_id", "category", "title", "press", "publish_year", "author", "price", "stock"};
+
+    @Test
+    public void mapBookTest() throws SQLException {
+        Object[][] rows = bookRows(1000);
+        List<Book> books = RowMappers.book(resultSet(BOOK_COLUMNS, rows), StringDictionary.ATTRIBUTES)
+                .list(resultSet(BOOK_COLUMNS, rows));
+        Assert.assertEquals(rows.length, books.size());
+        for (int i = 0; i < rows.length; i++) {
+            Book book = books.get(i);
+            Assert.assertEquals(rows[i][0], book.getBookId());
+            Assert.assertEquals(rows[i][2], book.getTitle());
+            Assert.assertEquals(rows[i][5], book.getAuthor());
+            Assert.assertEquals(Prices.toCents((BigDecimal) rows[i][6]), book.getPriceCents());
+            Assert.assertEquals(rows[i][7], book.getStock());
+        }
+        Assert.assertSame(books.get(0).getCategory(), StringDictionary.ATTRIBUTES.intern(books.get(0).getCategory()));
+    }
+
+    @Test
+    public void mapCardTest() throws SQLException {
+        String[] columns = {"type", "department", "name", "card_id"};
+        Object[][] rows = {{"S", "Law", "Alice", 1}, {"T", "Computer Science", "Bob", 2}};
+        List<Card> cards = RowMappers.card(resultSet(columns, rows), StringDictionary.ATTRIBUTES)
+                .list(resultSet(columns, rows));
+        Assert.assertEquals(Card.CardType.Student, cards.get(0).getType());
+        Assert.assertEquals("Computer Science", cards.get(1).getDepartment());
+        Assert.assertEquals(2, cards.get(1).getCardId());
+    }
+
+    @Test(expected = SQLException.class)
+    public void missingColumnTest() throws SQLException {
+        RowMappers.card(resultSet(new String[]{"card_id", "name"}, new Object[0][]), StringDictionary.ATTRIBUTES);
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Object[][] rows = bookRows(n);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            ResultSet rs = resultSet(BOOK_COLUMNS, rows);
+            RowMapper<Book> mapper = RowMappers.book(rs, StringDictionary.ATTRIBUTES);
+            int byIndex = mapper.list(rs).size();
+            long indexed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int byName = byName(resultSet(BOOK_COLUMNS, rows));
+            long named = System.nanoTime() - start;
+            System.out.printf("round %d: %d rows, by index %.1f ns/row, by name %.1f ns/row%n",
+                    round, byIndex + byName - n, (double) indexed / n, (double) named / n);
+        }
+    }
+
+    /* the mapping queryBook did before the row mappers */
+    private static int byName(ResultSet rs) throws SQLException {
+        int count = 0;
+        while (rs.next()) {
+            Book book = new Book();
+            book.setBookId(rs.getInt("book_id"));
+            book.setCategory(StringDictionary.ATTRIBUTES.intern(rs.getString("category")));
+            book.setTitle(rs.getString("title"));
+            book.setPress(StringDictionary.ATTRIBUTES.intern(rs.getString("press")));
+            book.setPublishYear(rs.getInt("publish_year"));
+            book.setAuthor(StringDictionary.ATTRIBUTES.intern(rs.getString("author")));
+            book.setPriceCents(Prices.toCents(rs.getBigDecimal("price")));
+            book.setStock(rs.getInt("stock"));
+            count++;
+        }
+        return count;
+    }
+
+    private static Object[][] bookRows(int n) {
+        Object[][] rows = new Object[n][];
+        for (int i = 0; i < n; i++) {
+            Book b = RandomData.randomBook();
+            rows[i] = new Object[]{i + 1, b.getCategory(), b.getTitle(), b.getPress(), b.getPublishYear(),
+                    b.getAuthor(), Prices.toDecimal(b.getPriceCents()), b.getStock()};
+        }
+        return rows;
+    }
+
+    /* a forward-only result set over rows, labels are searched like drivers do */
+    private static ResultSet resultSet(String[] columns, Object[][] rows) {
+        ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return columns.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return columns[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] cursor = {-1};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++cursor[0] < rows.length;
+                        case "getMetaData":
+                            return meta;
+                        case "getInt":
+                        case "getLong":
+                        case "getString":
+                        case "getBigDecimal":
+                            int column = args[0] instanceof Integer ? (Integer) args[0] : findColumn(columns, (String) args[0]);
+                            Object value = rows[cursor[0]][column - 1];
+                            return method.getName().equals("getLong") ? ((Number) value).longValue() : value;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static int findColumn(String[] columns, String label) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        throw new SQLException("Column '" + label + "' not found");
+    }
+}
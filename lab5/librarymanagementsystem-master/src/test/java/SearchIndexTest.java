@@ -0,0 +1,242 @@
+import index.BKTree;
+import index.NGramIndex;
+import index.PrefixTrie;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class SearchIndexTest {
+
+    @Test
+    public void trieVariantsTest() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("Data Science");
+        trie.add("data science");
+        trie.add("data science");
+        trie.add("Databases");
+        // both spellings share a node, which completes to the one most rows carry
+        Assert.assertEquals(Arrays.asList("data science", "Databases"), trie.complete("DATA", 10));
+
+        trie.remove("data science");
+        trie.remove("data science");
+        Assert.assertEquals(Arrays.asList("Data Science", "Databases"), trie.complete("data", 10));
+        trie.remove("DATA SCIENCE"); // no row carries this spelling
+        Assert.assertEquals(Arrays.asList("Data Science", "Databases"), trie.complete("data", 10));
+
+        trie.remove("Data Science");
+        trie.remove("Databases");
+        Assert.assertEquals(Collections.emptyList(), trie.complete("", 10));
+        Assert.assertEquals(Collections.emptyList(), trie.complete("d", 10)); // pruned
+        trie.add("Databases");
+        Assert.assertEquals(Collections.singletonList("Databases"), trie.complete("d", 10));
+    }
+
+    @Test
+    public void ngramSupersetTest() {
+        Random random = new Random(42);
+        NGramIndex index = new NGramIndex();
+        Map<Integer, String> values = new HashMap<>();
+        for (int id = 0; id < 500; id++) {
+            String value = word(random, "abcAB ", 4 + random.nextInt(12));
+            index.put(id, value);
+            values.put(id, value);
+        }
+        for (int id = 0; id < 500; id += 3) { // updates and removals must leave no stale postings behind
+            if (id % 2 == 0) {
+                index.remove(id);
+                values.remove(id);
+            } else {
+                String value = word(random, "abcAB ", 4 + random.nextInt(12));
+                index.put(id, value);
+                values.put(id, value);
+            }
+        }
+        Assert.assertEquals(values.size(), index.size());
+
+        for (int i = 0; i < 300; i++) {
+            String keyword = word(random, "abcAB ", 3 + random.nextInt(4));
+            int[] candidates = index.candidates(keyword);
+            Assert.assertNotNull(keyword, candidates);
+            for (int j = 1; j < candidates.length; j++) {
+                Assert.assertTrue(candidates[j - 1] < candidates[j]);
+            }
+            for (Map.Entry<Integer, String> e : values.entrySet()) {
+                // LIKE '%keyword%' under the case insensitive collation
+                if (e.getValue().toLowerCase(Locale.ROOT).contains(keyword.toLowerCase(Locale.ROOT))) {
+                    Assert.assertTrue(keyword + " in " + e.getValue(), Arrays.binarySearch(candidates, e.getKey()) >= 0);
+                }
+            }
+        }
+        Assert.assertNull(index.candidates("ab")); // too short to prune
+        Assert.assertNull(index.candidates("a%b"));
+        Assert.assertArrayEquals(new int[0], index.candidates("xyz"));
+    }
+
+    @Test
+    public void ngramIdeographTest() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "数据库系统概念");
+        index.put(2, "数据结构与算法");
+        index.put(3, "Database System Concepts");
+        index.put(4, "\uD840\uDC00\uD840\uDC01\uD840\uDC02"); // outside the BMP
+        Assert.assertArrayEquals(new int[]{1}, index.candidates("数据库"));
+        Assert.assertNull(index.candidates("数据")); // too short to prune
+        Assert.assertArrayEquals(new int[]{2}, index.candidates("结构与"));
+        Assert.assertArrayEquals(new int[0], index.candidates("操作系统"));
+        Assert.assertArrayEquals(new int[]{4}, index.candidates("\uD840\uDC00\uD840\uDC01\uD840\uDC02"));
+        Assert.assertNull(index.candidates("\uD840\uDC00\uD840\uDC01")); // two code points only
+        // accented letters may be equal to other letters under the collation, they are not pruned
+        Assert.assertNull(index.candidates("Dàtabase"));
+    }
+
+    @Test
+    public void trieTopKTest() {
+        PrefixTrie trie = new PrefixTrie();
+        Map<String, Integer> counts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) { // more values than a node caches
+            String value = "b" + word(random, "abc", 1 + random.nextInt(3));
+            trie.add(value);
+            counts.merge(value, 1, Integer::sum);
+        }
+        assertTopK(trie, counts, "b");
+        assertTopK(trie, counts, "ba");
+
+        // caches are warm now, removing the best values must reorder them
+        List<String> best = trie.complete("b", 3);
+        for (String value : best) {
+            while (counts.get(value) > 0) {
+                trie.remove(value);
+                counts.merge(value, -1, Integer::sum);
+            }
+        }
+        assertTopK(trie, counts, "b");
+        for (String value : best) {
+            Assert.assertFalse(trie.complete("b", PrefixTrie.MAX_K).contains(value));
+        }
+
+        // and adding them back, heavier than before, puts them first again
+        for (String value : best) {
+            for (int i = 0; i < 100; i++) {
+                trie.add(value);
+                counts.merge(value, 1, Integer::sum);
+            }
+        }
+        assertTopK(trie, counts, "b");
+        Assert.assertEquals(new HashSet<>(best), new HashSet<>(trie.complete("b", 3)));
+    }
+
+    @Test
+    public void trieWeightTest() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("Databases", 1);
+        trie.add("Databases", 1); // two books with one copy each
+        trie.add("Data Mining", 5);
+        trie.add("Data Science", 0);
+        Assert.assertEquals(Arrays.asList("Data Mining", "Databases", "Data Science"), trie.complete("data", 10));
+
+        trie.weigh("Data Mining", -4); // copies lent out, ties with Databases, which more books carry
+        Assert.assertEquals(Arrays.asList("Databases", "Data Mining", "Data Science"), trie.complete("data", 10));
+        trie.weigh("Data Science", 3);
+        Assert.assertEquals("Data Science", trie.complete("data", 1).get(0));
+
+        trie.remove("Databases", 1);
+        trie.remove("Data Science", 3);
+        Assert.assertEquals(Arrays.asList("Data Mining", "Databases"), trie.complete("d", 10)); // a tie
+        trie.add("Data Science", 0); // added back without its old weight
+        Assert.assertEquals(Arrays.asList("Data Mining", "Databases", "Data Science"), trie.complete("d", 10));
+    }
+
+    @Test
+    public void bkTreeTest() {
+        Random random = new Random(11);
+        BKTree tree = new BKTree();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String value = word(random, "abcd", 3 + random.nextInt(5));
+            tree.add(value);
+            values.add(value);
+        }
+        assertWithin(tree, values, random);
+
+        // remove far more values than stay, so the tombstones force a rebuild
+        Collections.shuffle(values, random);
+        List<String> removed = new ArrayList<>(values.subList(0, 250));
+        values.subList(0, 250).clear();
+        for (String value : removed) {
+            tree.remove(value);
+        }
+        assertWithin(tree, values, random);
+        for (String value : removed) {
+            if (!values.contains(value)) {
+                Assert.assertFalse(tree.search(value, 0).contains(value));
+            }
+        }
+
+        for (String value : removed.subList(0, 50)) {
+            tree.add(value);
+            values.add(value);
+        }
+        assertWithin(tree, values, random);
+
+        // every spelling folding to the same key is found until its last row goes
+        tree.clear();
+        tree.add("Database");
+        tree.add("DATABASE");
+        tree.add("Database");
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Database", "DATABASE")),
+                new HashSet<>(tree.search("databse", 1)));
+        tree.remove("Database");
+        Assert.assertEquals(2, tree.search("databse", 1).size());
+        tree.remove("DATABASE");
+        Assert.assertEquals(Collections.singletonList("Database"), tree.search("databse", 1));
+    }
+
+    private static void assertTopK(PrefixTrie trie, Map<String, Integer> counts, String prefix) {
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 0 && e.getKey().startsWith(prefix)) {
+                expected.add(e.getKey());
+            }
+        }
+        expected.sort((x, y) -> counts.get(x).equals(counts.get(y))
+                ? x.compareTo(y) : Integer.compare(counts.get(y), counts.get(x)));
+        for (int k = 1; k <= PrefixTrie.MAX_K; k++) {
+            Assert.assertEquals(expected.subList(0, Math.min(k, expected.size())), trie.complete(prefix, k));
+        }
+    }
+
+    private static void assertWithin(BKTree tree, List<String> values, Random random) {
+        for (int i = 0; i < 100; i++) {
+            String query = word(random, "abcd", 3 + random.nextInt(5));
+            int k = random.nextInt(3);
+            Set<String> expected = new HashSet<>();
+            for (String value : values) {
+                if (BKTree.within(value, query, k)) {
+                    expected.add(value);
+                }
+            }
+            List<String> found = tree.search(query, k);
+            Assert.assertEquals(query, found.size(), new HashSet<>(found).size()); // once per distinct value
+            Assert.assertEquals(query, expected, new HashSet<>(found));
+        }
+    }
+
+    private static String word(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.Assert;
+import org.junit.Test;
+import utils.RandomData;
+import utils.StringDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void canonicalizeTest() throws InterruptedException {
+        StringDictionary dictionary = new StringDictionary(64);
+        ConcurrentHashMap<String, String> seen = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    String category = new String(RandomData.randomCategory());
+                    String canonical = dictionary.intern(category);
+                    Assert.assertEquals(category, canonical);
+                    Assert.assertSame(seen.computeIfAbsent(canonical, k -> canonical), canonical);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, dictionary.evictions());
+        Assert.assertNull(dictionary.intern(null));
+    }
+
+    @Test
+    public void evictionTest() {
+        StringDictionary dictionary = new StringDictionary(16);
+        String hot = dictionary.intern(new String("hot"));
+        String cold = dictionary.intern(new String("cold"));
+        for (int i = 0; i < 1000; i++) {
+            dictionary.intern("hot");
+            dictionary.intern("title-" + i); // high cardinality, must not grow the dictionary
+            Assert.assertTrue(dictionary.size() <= dictionary.capacity());
+        }
+        Assert.assertTrue(dictionary.evictions() > 0);
+        Assert.assertSame(hot, dictionary.intern(new String("hot")));
+        String again = new String("cold");
+        Assert.assertSame(again, dictionary.intern(again)); // evicted, so the new instance becomes canonical
+        Assert.assertNotSame(cold, again);
+    }
+}